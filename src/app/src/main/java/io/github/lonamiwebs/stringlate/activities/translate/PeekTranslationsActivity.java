@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import io.github.lonamiwebs.stringlate.R;
 import io.github.lonamiwebs.stringlate.adapters.TranslationPeekAdapter;
 import io.github.lonamiwebs.stringlate.classes.repos.RepoHandler;
+import io.github.lonamiwebs.stringlate.classes.resources.CompactResources;
 import io.github.lonamiwebs.stringlate.utilities.RepoHandlerHelper;
 
 import static io.github.lonamiwebs.stringlate.utilities.Constants.EXTRA_ID;
@@ -60,14 +61,16 @@ public class PeekTranslationsActivity extends AppCompatActivity {
     //region ListView refreshing
 
     private void refreshTranslationsListView() {
-        final ArrayList<TranslationPeekAdapter.Item> translations = new ArrayList<>();
-        for (String locale : mRepo.getLocales()) {
-            if (locale.equals(mLocale))
-                continue;
+        final ArrayList<String> locales = new ArrayList<>(mRepo.getLocales());
+        locales.remove(mLocale);
 
-            final String content = mRepo.loadResources(locale).getContent(mResourceId);
+        // Every locale is needed, so they're all loaded at once
+        final ArrayList<CompactResources> resources = mRepo.loadCompactResources(locales);
+        final ArrayList<TranslationPeekAdapter.Item> translations = new ArrayList<>();
+        for (int i = 0; i < locales.size(); ++i) {
+            final String content = resources.get(i).getContent(mResourceId);
             if (!content.isEmpty()) {
-                translations.add(new TranslationPeekAdapter.Item(locale, content));
+                translations.add(new TranslationPeekAdapter.Item(locales.get(i), content));
             }
         }
 
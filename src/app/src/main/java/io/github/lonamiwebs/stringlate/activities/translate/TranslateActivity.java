@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.graphics.Paint;
 import android.graphics.Typeface;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
@@ -35,12 +36,15 @@ import android.widget.Toast;
 import net.gsantner.opoc.util.GeneralUtils;
 import net.gsantner.opoc.util.ShareUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Locale;
@@ -53,8 +57,10 @@ import io.github.lonamiwebs.stringlate.activities.export.CreateIssueActivity;
 import io.github.lonamiwebs.stringlate.activities.export.CreatePullRequestActivity;
 import io.github.lonamiwebs.stringlate.classes.RepoSyncTask;
 import io.github.lonamiwebs.stringlate.classes.locales.LocaleString;
+import io.github.lonamiwebs.stringlate.classes.repos.RepoExporter;
 import io.github.lonamiwebs.stringlate.classes.repos.RepoHandler;
 import io.github.lonamiwebs.stringlate.classes.repos.RepoProgress;
+import io.github.lonamiwebs.stringlate.classes.resources.AutosaveScheduler;
 import io.github.lonamiwebs.stringlate.classes.resources.ResourceStringComparator;
 import io.github.lonamiwebs.stringlate.classes.resources.Resources;
 import io.github.lonamiwebs.stringlate.classes.resources.ResourcesTranslation;
@@ -106,6 +112,12 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
     private RepoHandler mRepo;
 
+    // Saving after every string would rewrite the whole file too often, so it's delayed
+    private static final long AUTOSAVE_QUIET_MILLIS = 2000;
+    private static final long AUTOSAVE_MAX_DELAY_MILLIS = 10000;
+    private AutosaveScheduler mAutosave;
+    private AlertDialog mSaveErrorDialog;
+
     private boolean mLoaded;
 
     // Since the string filter (search) applies to both the original and the
@@ -135,6 +147,16 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
         setContentView(R.layout.activity_translate);
 
         mSettings = new AppSettings(this);
+        mAutosave = new AutosaveScheduler(AUTOSAVE_QUIET_MILLIS, AUTOSAVE_MAX_DELAY_MILLIS,
+                (resources, saved, failures, latencyMillis, durationMillis) -> {
+                    // Saving is retried in the background, so the error is only
+                    // shown the first time it fails since it was last saved
+                    if (failures == 1)
+                        runOnUiThread(() -> {
+                            if (!isFinishing())
+                                showSaveError();
+                        });
+                });
 
         mOriginalStringTextView = findViewById(R.id.originalStringEditText);
         mTranslatedStringEditText = findViewById(R.id.translatedStringEditText);
@@ -210,7 +232,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
     private void loadResources() {
         if (mRepo.hasDefaultLocale()) {
-            mDefaultResources = mRepo.loadDefaultResources();
+            mDefaultResources = mRepo.loadDefaultResourcesLazily();
             loadLocalesSpinner();
             checkTranslationVisibility();
         } else {
@@ -400,9 +422,16 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
     @Override
     protected void onPause() {
         super.onPause();
+        // Anything else may read the files as soon as we're paused, so wait until they're saved
         save();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAutosave.shutdown();
+    }
+
     //endregion
 
     //region Menu events
@@ -588,6 +617,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
     // This method will only work if there is one template
     private void doExportToSd(Uri uri) {
+        save();
         try {
             doExportToSd(uri, mRepo.getDefaultResourcesFiles()[0]);
             Toast.makeText(this, getString(R.string.export_file_success, uri.getPath()),
@@ -598,48 +628,69 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
         }
     }
 
-    private void doExportManyToSd(Uri uri) {
-        boolean ok = true;
+    // Templates are applied on a background thread (see RepoExporter), and
+    // every file is named after its template, as when exporting a single one
+    private void doExportManyToSd(final Uri uri) {
+        save();
+        final RepoExporter.Sink sink;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             // DocumentFile.fromTreeUri:
             //   "This is only useful on devices running LOLLIPOP or later,
             //    and will return null when called on earlier platform versions."
-            DocumentFile pickedDir = DocumentFile.fromTreeUri(this, uri);
-            try {
-                for (File template : mRepo.getDefaultResourcesFiles()) {
-                    // Do not bother creating a file unless there is some strings for it
-                    if (mRepo.canApplyTemplate(template, mSelectedLocale)) {
-                        DocumentFile outFile = pickedDir.createFile("text/xml", template.getName());
-                        doExportToSd(outFile.getUri(), template);
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                ok = false;
-            }
+            final DocumentFile pickedDir = DocumentFile.fromTreeUri(this, uri);
+            sink = (path, template, content) -> {
+                DocumentFile outFile = pickedDir.createFile("text/xml", template.getName());
+                if (outFile == null)
+                    throw new IOException("Could not create " + template.getName());
+
+                writeToUri(outFile.getUri(), content);
+            };
         } else {
-            try {
-                File root = new File(uri.getPath());
+            final File root = new File(uri.getPath());
+            sink = (path, template, content) -> {
                 if (!root.isDirectory() && !root.mkdirs())
                     throw new IOException("Could not create the root directory.");
 
-                for (File template : mRepo.getDefaultResourcesFiles()) {
-                    // Do not bother creating a file unless there is some strings for it
-                    if (mRepo.canApplyTemplate(template, mSelectedLocale)) {
-                        File outFile = new File(root, template.getName());
-                        doExportToSd(Uri.fromFile(outFile), template);
-                    }
+                writeToUri(Uri.fromFile(new File(root, template.getName())), content);
+            };
+        }
+
+        final Context context = getApplicationContext();
+        final RepoExporter exporter =
+                new RepoExporter(mRepo, Collections.singleton(mSelectedLocale));
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                try {
+                    return exporter.export(sink);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-                ok = false;
             }
-        }
-        if (ok) {
-            Toast.makeText(this, getString(R.string.export_file_success, uri.getPath()),
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, R.string.export_file_failed, Toast.LENGTH_SHORT).show();
+
+            @Override
+            protected void onPostExecute(Boolean ok) {
+                if (ok) {
+                    String message = context.getString(R.string.export_file_success, uri.getPath());
+                    Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(context, R.string.export_file_failed, Toast.LENGTH_SHORT).show();
+                }
+            }
+        }.execute();
+    }
+
+    private void writeToUri(Uri uri, ByteArrayOutputStream content)
+            throws IOException {
+        OutputStream out = getContentResolver().openOutputStream(uri, "w");
+        if (out == null)
+            throw new IOException("Could not open " + uri);
+
+        try {
+            content.writeTo(out);
+        } finally {
+            out.close();
         }
     }
 
@@ -657,6 +708,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
     // Exports the currently selected locale resources to a GitHub Gist
     private void exportToGist() {
+        save();
         Intent intent = new Intent(this, CreateGistActivity.class);
         intent.putExtra(EXTRA_REPO, RepoHandlerHelper.toBundle(mRepo));
         intent.putExtra(EXTRA_LOCALE, mSelectedLocale);
@@ -669,6 +721,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
             Toast.makeText(this, R.string.login_required, Toast.LENGTH_LONG).show();
             return;
         }
+        save();
         Intent intent = new Intent(this, CreateIssueActivity.class);
         intent.putExtra(EXTRA_REPO, RepoHandlerHelper.toBundle(mRepo));
         intent.putExtra(EXTRA_LOCALE, mSelectedLocale);
@@ -689,6 +742,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
         if (!new ContextUtils(this).isConnectedToInternet(R.string.no_internet_connection))
             return;
 
+        save();
         Intent intent = new Intent(this, CreatePullRequestActivity.class);
         intent.putExtra(EXTRA_REPO, RepoHandlerHelper.toBundle(mRepo));
         intent.putExtra(EXTRA_LOCALE, mSelectedLocale);
@@ -697,6 +751,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
     // Exports the currently selected locale resources to a plain text share intent
     private void exportToShare() {
+        save();
         String xml = mRepo.mergeDefaultTemplate(mSelectedLocale);
         Intent sharingIntent = new Intent(android.content.Intent.ACTION_SEND);
         sharingIntent.setType("text/plain");
@@ -707,6 +762,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
     // Exports the currently selected locale resources to the primary clipboard
     private void exportToCopy() {
+        save();
         String filename = mSelectedLocaleResources.getFilename();
         String xml = mRepo.mergeDefaultTemplate(mSelectedLocale);
 
@@ -717,6 +773,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
     // Exports the currently selected locale resources to hastebin and sets the primary clipboard
     private void exportToHastebin() {
+        save();
         String xml = mRepo.mergeDefaultTemplate(mSelectedLocale);
 
         final ShareUtil shu = new ShareUtil(this);
@@ -732,6 +789,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
     // Start drafting an email
     private void exportToEmail() {
+        save();
         String xml = mRepo.mergeDefaultTemplate(mSelectedLocale);
         String subject = mRepo.getProjectName() + " - "
                 + getString(R.string.updated_x_translation, mSelectedLocale,
@@ -929,25 +987,43 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
         incrementStringIdIndex(+1);
     }
 
+    // Saves the selected locale right away, along with anything else pending to be saved,
+    // and waits until it's done. This must be done before anything reads the files (such as
+    // exporting or synchronizing), since the changes are otherwise saved later (see mAutosave)
     private void save() {
+        if (isLocaleSelected(false))
+            mAutosave.markDirty(mSelectedLocaleResources);
+
+        // If saving fails, the error is shown by the scheduler's listener
+        if (mAutosave.flushAndWait())
+            updateProgress();
+    }
+
+    // Same as save(), but the file is written later in the background (see mAutosave)
+    private void scheduleSave() {
         if (isLocaleSelected(false)) {
-            if (mSelectedLocaleResources.save()) {
-                updateProgress();
-            } else {
-                new AlertDialog.Builder(this)
-                        .setMessage(R.string.save_error)
-                        .setPositiveButton(R.string.retry, new DialogInterface.OnClickListener() {
-                            @Override
-                            public void onClick(DialogInterface dialogInterface, int i) {
-                                save();
-                            }
-                        })
-                        .setNegativeButton(R.string.cancel, null)
-                        .show();
-            }
+            mAutosave.markDirty(mSelectedLocaleResources);
+            updateProgress();
         }
     }
 
+    private void showSaveError() {
+        // Saving may have failed again since, while the previous error is still shown
+        if (mSaveErrorDialog != null && mSaveErrorDialog.isShowing())
+            return;
+
+        mSaveErrorDialog = new AlertDialog.Builder(this)
+                .setMessage(R.string.save_error)
+                .setPositiveButton(R.string.retry, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        save();
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
     //endregion
 
     //region EditText events
@@ -1034,14 +1110,17 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
             // original strings + those same characters if a translation is available.
             // This will be used to make a weighted progress (if you translated only
             // long strings, then this will be closer to 100% than if you translated small ones).
+            // Both are read through snapshots, which stay the same while they're being changed
+            final Resources original = mDefaultResources.snapshot();
+            final Resources translated = mSelectedLocaleResources.snapshot();
             RepoProgress progress = new RepoProgress();
-            progress.stringsCount = mDefaultResources.count();
+            progress.stringsCount = original.count();
 
             int chars;
-            for (ResTag rs : mDefaultResources) {
+            for (ResTag rs : original) {
                 chars = rs.getContentLength();
                 progress.totalChars += chars;
-                if (mSelectedLocaleResources.contains(rs.getId())) {
+                if (translated.contains(rs.getId())) {
                     progress.translatedCount += 1;
                     progress.currentChars += chars;
                 }
@@ -1106,8 +1185,9 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
     private void loadStringIDsSpinner() {
         if (!mLoaded || !isLocaleSelected(false)) return;
 
+        final Resources translated = mSelectedLocaleResources.snapshot();
         ArrayList<String> spinnerArray = new ArrayList<>();
-        final Iterator<ResTag> it = mDefaultResources.sortIterator(
+        final Iterator<ResTag> it = mDefaultResources.snapshot().sortIterator(
                 ResourceStringComparator.getStringsComparator(mSettings.getStringSortMode()),
                 mFilteredIDs
         );
@@ -1115,7 +1195,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
             // Only show those which translation is identical to the original text
             while (it.hasNext()) {
                 ResTag rt = it.next();
-                if (mSelectedLocaleResources.getContent(rt.getId()).equals(rt.getContent()))
+                if (translated.getContent(rt.getId()).equals(rt.getContent()))
                     spinnerArray.add(rt.getId());
             }
         } else {
@@ -1128,7 +1208,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
                 // make sure that the currently selected locale doesn't already have them
                 while (it.hasNext()) {
                     ResTag rt = it.next();
-                    if (!mSelectedLocaleResources.contains(rt.getId()))
+                    if (!translated.contains(rt.getId()))
                         spinnerArray.add(rt.getId());
                 }
             }
@@ -1200,7 +1280,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
     // Increments the mStringIdSpinner index by delta i (di),
     // clamping the value if it's less than 0 or value ≥ IDs count.
     private void incrementStringIdIndex(int di) {
-        save(); // Save every time the user changes to a new string for safety reasons
+        scheduleSave(); // Save every time the user changes to a new string for safety reasons
         int i = mStringIdSpinner.getSelectedItemPosition() + di;
         if (i > -1) {
             if (i < mStringIdSpinner.getCount()) {
@@ -1224,7 +1304,7 @@ public class TranslateActivity extends AppCompatActivity implements LocaleSelect
 
         int i = getItemIndex(mStringIdSpinner, id);
         if (i > -1) {
-            save(); // Save every time the user changes to a new string for safety reasons
+            scheduleSave(); // Save every time the user changes to a new string for safety reasons
             mStringIdSpinner.setSelection(i);
             updateSelectedResourceId((String) mStringIdSpinner.getSelectedItem());
         } else if (!mShowTranslated) {
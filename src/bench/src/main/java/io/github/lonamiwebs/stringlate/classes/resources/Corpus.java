@@ -0,0 +1,130 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+// Generated strings.xml files the benchmarks run on. The same size always results in the
+// same file, made up of plain strings, string arrays and plurals, with some of them using
+// HTML tags, xliff placeholders, entities, escaped quotes or references to other strings.
+public final class Corpus {
+
+    //region Members
+
+    public enum Size {
+        SMALL(100), MEDIUM(2000), LARGE(50000);
+
+        final int strings;
+
+        Size(final int strings) {
+            this.strings = strings;
+        }
+    }
+
+    private static final String[] WORDS = {
+            "open", "the", "file", "settings", "translation", "repository", "sync", "locale",
+            "cannot", "string", "save", "changes", "done", "search", "español", "日本語", "über"
+    };
+
+    //endregion
+
+    //region Constructors
+
+    private Corpus() {
+    }
+
+    //endregion
+
+    //region Generating
+
+    // Writes the corpus of the given size into the directory, unless it's already there
+    public static File generate(final Size size, final File dir) throws IOException {
+        final File file = new File(dir, "strings_" + size.name().toLowerCase() + ".xml");
+        if (file.isFile())
+            return file;
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+
+        final Random random = new Random(size.strings);
+        final File tmp = new File(dir, file.getName() + ".tmp");
+        final Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+            out.write("<resources xmlns:xliff=\"urn:oasis:names:tc:xliff:document:1.2\">\n");
+            for (int i = 0; i < size.strings; ++i) {
+                switch (random.nextInt(10)) {
+                    case 0:
+                        writeArray(out, i, random);
+                        break;
+                    case 1:
+                        writePlurals(out, i, random);
+                        break;
+                    default:
+                        out.write("    <string name=\"string_" + i + "\"");
+                        if (random.nextInt(20) == 0)
+                            out.write(" translatable=\"false\"");
+                        out.write(">" + content(random, i) + "</string>\n");
+                        break;
+                }
+            }
+            out.write("</resources>\n");
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file))
+            throw new IOException("Could not create " + file);
+        return file;
+    }
+
+    private static void writeArray(final Writer out, final int i, final Random random)
+            throws IOException {
+        out.write("    <string-array name=\"array_" + i + "\">\n");
+        final int count = 2 + random.nextInt(5);
+        for (int j = 0; j < count; ++j)
+            out.write("        <item>" + content(random, i) + "</item>\n");
+        out.write("    </string-array>\n");
+    }
+
+    private static void writePlurals(final Writer out, final int i, final Random random)
+            throws IOException {
+        out.write("    <plurals name=\"plurals_" + i + "\">\n");
+        out.write("        <item quantity=\"one\">" + content(random, i) + "</item>\n");
+        out.write("        <item quantity=\"other\">" + content(random, i) + "</item>\n");
+        out.write("    </plurals>\n");
+    }
+
+    // Content as it would be found inside a strings.xml file (so, sanitized)
+    private static String content(final Random random, final int i) {
+        final StringBuilder sb = new StringBuilder();
+        final int words = 1 + random.nextInt(random.nextInt(8) == 0 ? 60 : 12);
+        for (int j = 0; j < words; ++j) {
+            if (j != 0)
+                sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        switch (random.nextInt(12)) {
+            case 0:
+                return "<b>" + sb + "</b> %1$s";
+            case 1:
+                return "<xliff:g id=\"count\">%d</xliff:g> " + sb;
+            case 2:
+                return sb + " &amp; \\'" + i + "\\'";
+            case 3:
+                return "\\\"" + sb + "\\\"\\n" + sb;
+            case 4:
+                return "@string/string_" + random.nextInt(i + 1);
+            case 5:
+                return sb + " &lt;" + i + "&gt;";
+            default:
+                return sb.toString();
+        }
+    }
+
+    //endregion
+}
@@ -0,0 +1,77 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResPlurals;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResStringArray;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
+
+// The corpus every benchmark runs on, loaded once per benchmark and size
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Corpus.Size size;
+
+    public File file;
+    public Resources resources;
+
+    // In random order, so that looking them up one after another doesn't favour any cache
+    public String[] ids;
+    public String[] parentIds;
+
+    public String[] contents; // As they're kept in memory
+    public String[] sanitized; // As they're written to the files
+
+    // Discards everything written to it, so that only producing the output is measured
+    public static final OutputStream SINK = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setup() throws IOException {
+        file = Corpus.generate(size, new File(System.getProperty("java.io.tmpdir"), "stringlate-bench"));
+        resources = Resources.fromFile(file);
+
+        final ArrayList<String> idList = new ArrayList<>();
+        final LinkedHashSet<String> parentList = new LinkedHashSet<>();
+        final ArrayList<String> contentList = new ArrayList<>();
+        for (ResTag tag : resources) {
+            idList.add(tag.getId());
+            contentList.add(tag.getContent());
+            if (tag instanceof ResStringArray.Item)
+                parentList.add(((ResStringArray.Item) tag).getParent().getId());
+            else if (tag instanceof ResPlurals.Item)
+                parentList.add(((ResPlurals.Item) tag).getParent().getId());
+        }
+
+        final Random random = new Random(size.strings);
+        Collections.shuffle(idList, random);
+        final ArrayList<String> parents = new ArrayList<>(parentList);
+        Collections.shuffle(parents, random);
+
+        ids = idList.toArray(new String[idList.size()]);
+        parentIds = parents.toArray(new String[parents.size()]);
+        contents = contentList.toArray(new String[contentList.size()]);
+        sanitized = new String[contents.length];
+        for (int i = 0; i < contents.length; ++i)
+            sanitized[i] = ResTag.sanitizeContent(contents[i]);
+    }
+}
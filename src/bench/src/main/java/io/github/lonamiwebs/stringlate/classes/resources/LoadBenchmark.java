@@ -0,0 +1,52 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.stringlate.interfaces.ResourcesVisitor;
+
+// Loading strings.xml files, either into Resources or only streaming their tags
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Benchmark
+    public Resources loadFromXml(final CorpusState state) {
+        return Resources.fromFile(state.file);
+    }
+
+    @Benchmark
+    public boolean visitFile(final CorpusState state, final Blackhole blackhole) {
+        return ResourcesParser.visitFile(state.file, new ResourcesVisitor() {
+            @Override
+            public void onString(String id, String content, boolean modified) {
+                blackhole.consume(content);
+            }
+
+            @Override
+            public void onArrayItem(String arrayId, int index, String content, boolean modified) {
+                blackhole.consume(content);
+            }
+
+            @Override
+            public void onPluralItem(String pluralsId, String quantity, String content, boolean modified) {
+                blackhole.consume(content);
+            }
+
+            @Override
+            public void onEnd() {
+            }
+        });
+    }
+}
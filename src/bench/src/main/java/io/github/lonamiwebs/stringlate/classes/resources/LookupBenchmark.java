@@ -0,0 +1,66 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
+
+// Looking up tags by their ID (or their parent's ID, which falls back to any of its items),
+// and iterating over them sorted, either as they are or right after one of them changes
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+    private static final Comparator<ResTag> ALPHABETICALLY =
+            ResourceStringComparator.getStringsComparator(ResourceStringComparator.SORT_ALPHABETICALLY);
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public ResTag getTag(final CorpusState state, final Cursor cursor) {
+        final String[] ids = state.ids;
+        return state.resources.getTag(ids[cursor.next++ % ids.length]);
+    }
+
+    @Benchmark
+    public ResTag getTagByParentId(final CorpusState state, final Cursor cursor) {
+        final String[] ids = state.parentIds;
+        return state.resources.getTag(ids[cursor.next++ % ids.length]);
+    }
+
+    @Benchmark
+    public void sortIterator(final CorpusState state, final Blackhole blackhole) {
+        final Iterator<ResTag> it = state.resources.sortIterator(ALPHABETICALLY, null);
+        while (it.hasNext())
+            blackhole.consume(it.next());
+    }
+
+    @Benchmark
+    public void sortIteratorAfterChange(final CorpusState state, final Cursor cursor,
+                                        final Blackhole blackhole) {
+        final ResTag tag = state.resources.getTag(state.ids[cursor.next++ % state.ids.length]);
+        state.resources.setContent(tag, tag.getContent() + (cursor.next & 1));
+
+        final Iterator<ResTag> it = state.resources.sortIterator(ALPHABETICALLY, null);
+        while (it.hasNext())
+            blackhole.consume(it.next());
+    }
+}
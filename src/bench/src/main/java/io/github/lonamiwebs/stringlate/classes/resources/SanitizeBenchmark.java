@@ -0,0 +1,55 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
+
+// (De)sanitizing the content of every string on the corpus, as saving or loading it would.
+// Without the memo, its remembered results are dropped before every operation
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanitizeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Memo {
+        @Param({"true", "false"})
+        public boolean memo;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            if (!memo) {
+                ResTag.getSanitizeMemo().clear();
+                ResTag.getDesanitizeMemo().clear();
+            }
+        }
+    }
+
+    @Benchmark
+    public void sanitizeContent(final CorpusState state, final Memo memo, final Blackhole blackhole) {
+        for (String content : state.contents)
+            blackhole.consume(ResTag.sanitizeContent(content));
+    }
+
+    @Benchmark
+    public void desanitizeContent(final CorpusState state, final Memo memo, final Blackhole blackhole) {
+        for (String content : state.sanitized)
+            blackhole.consume(ResTag.desanitizeContent(content));
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Writing Resources as XML (ResourcesParser.parseToXml), without touching the disk
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveBenchmark {
+
+    @Benchmark
+    public boolean parseToXml(final CorpusState state) {
+        return ResourcesCodec.get().write(state.resources, CorpusState.SINK);
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Cleaning a strings.xml file into a template, and applying the translations to it
+// (either analyzing the template every time, or only once beforehand)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @State(Scope.Thread)
+    public static class Template {
+        File template;
+        File cleaned;
+        TemplatePlan plan;
+
+        @Setup
+        public void setup(final CorpusState state) throws IOException {
+            template = File.createTempFile("template", ".xml");
+            cleaned = File.createTempFile("cleaned", ".xml");
+            if (!ResourcesParser.cleanXml(state.file, template))
+                throw new IOException("Could not create the template");
+
+            plan = TemplatePlan.fromFile(template);
+        }
+
+        @TearDown
+        public void tearDown() {
+            template.delete();
+            cleaned.delete();
+        }
+    }
+
+    @Benchmark
+    public boolean cleanXml(final CorpusState state, final Template template) {
+        return ResourcesParser.cleanXml(state.file, template.cleaned);
+    }
+
+    @Benchmark
+    public boolean applyTemplate(final CorpusState state, final Template template) {
+        return ResourcesParser.applyTemplate(template.template, state.resources, CorpusState.SINK);
+    }
+
+    // As applying it once per locale would, with the template analyzed only once
+    @Benchmark
+    public boolean applyTemplatePlan(final CorpusState state, final Template template) {
+        return template.plan.apply(state.resources, CorpusState.SINK);
+    }
+}
@@ -0,0 +1,280 @@
+package io.github.lonamiwebs.stringlate.classes.repos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import io.github.lonamiwebs.stringlate.classes.resources.Resources;
+
+// Class used to export the translations of many locales of a repository at once, e.g. to hand
+// all of them to upstream, by applying every default template to every locale.
+//
+// The templates are applied on a pool of worker threads, while the thread exporting writes
+// the results as they become ready, either into a single zip or into a directory tree. The
+// files are always written in the same order (by locale, then by template name), and only a
+// few of them are kept in memory at once, no matter how many locales there are.
+//
+// Every file goes where it would on the repository (see RepoHandler.getTemplateRemotePaths),
+// or under "values-<locale>/" if its remote path is unknown, unless a custom Sink decides
+// otherwise. Files for which there are no translations at all are skipped, just like when
+// exporting a single locale.
+public class RepoExporter {
+
+    //region Members
+
+    public interface OnProgress {
+        // Called from the thread exporting, in order, after each file was exported
+        // or skipped, where done counts the files which were already processed
+        void onUpdate(int done, int total, String locale, File template);
+    }
+
+    // Where the exported files go, called from the thread exporting, in order. The path
+    // is where the file would go on the repository, and the template what it was made from
+    public interface Sink {
+        void write(String path, File template, ByteArrayOutputStream content) throws IOException;
+    }
+
+    private final RepoHandler mRepo;
+    private final String[] mLocales;
+    private final File[] mTemplates;
+
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private OnProgress mProgress; // May be null
+
+    private volatile boolean mCancelled;
+
+    // The remote paths are only looked up once per locale, since files of
+    // the same locale are exported one after another
+    private String mPathsLocale;
+    private HashMap<File, String> mPaths;
+
+    //endregion
+
+    //region Constructors
+
+    // The default locale should not be part of the given locales
+    public RepoExporter(final RepoHandler repo, final Collection<String> locales) {
+        mRepo = repo;
+        mLocales = new TreeSet<>(locales).toArray(new String[0]);
+
+        mTemplates = repo.getDefaultResourcesFiles();
+        Arrays.sort(mTemplates, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+    }
+
+    //endregion
+
+    //region Settings
+
+    // Sets how many templates are applied at once, by default as many as processors
+    public RepoExporter setThreads(final int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("There must be at least one thread");
+
+        mThreads = threads;
+        return this;
+    }
+
+    public RepoExporter setOnProgress(final OnProgress progress) {
+        mProgress = progress;
+        return this;
+    }
+
+    // May be called from any thread. The export stops as soon as possible
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean wasCancelled() {
+        return mCancelled;
+    }
+
+    // Total count of files to be exported (some of which may be skipped)
+    public int getTotal() {
+        return mLocales.length * mTemplates.length;
+    }
+
+    //endregion
+
+    //region Exporting
+
+    // Exports the files as the entries of a zip written into the given output, which is
+    // finished but left open. Returns FALSE if it was cancelled, and then the zip is left
+    // unfinished and should be discarded
+    public boolean exportToZip(final OutputStream out) throws IOException {
+        final ZipOutputStream zip = new ZipOutputStream(out);
+        final boolean done = export(new Sink() {
+            @Override
+            public void write(String path, File template, ByteArrayOutputStream content)
+                    throws IOException {
+                zip.putNextEntry(new ZipEntry(path));
+                content.writeTo(zip);
+                zip.closeEntry();
+            }
+        });
+        if (done)
+            zip.finish();
+
+        return done;
+    }
+
+    // Exports the files into the given directory, creating it if needed. Returns FALSE
+    // if it was cancelled, and then only some of the files will have been written
+    public boolean exportToDirectory(final File root) throws IOException {
+        return export(new Sink() {
+            @Override
+            public void write(String path, File template, ByteArrayOutputStream content)
+                    throws IOException {
+                final File file = new File(root, path);
+                final File parent = file.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs())
+                    throw new IOException("Could not create the directory " + parent);
+
+                final FileOutputStream out = new FileOutputStream(file);
+                try {
+                    content.writeTo(out);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+    }
+
+    // Exports the files into the given sink. Returns FALSE if it was cancelled,
+    // and then only some of the files will have been written
+    public boolean export(final Sink sink) throws IOException {
+        final int total = getTotal();
+        final ExecutorService executor = newExecutor();
+
+        // The files being exported, in order. Only a couple per thread are
+        // submitted ahead of time, so that the rest don't pile up in memory
+        final ArrayDeque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<>();
+        final int ahead = mThreads * 2;
+        int submitted = 0;
+        int done = 0;
+
+        // The resources of a few locales are loaded at once (see RepoHandler.loadResources),
+        // right before the files of the first of them are submitted. The workers only read
+        // their snapshots, which may be shared by the templates of the same locale
+        List<Resources> loaded = Collections.emptyList();
+        int loadedFrom = 0;
+        try {
+            while (done < total) {
+                while (submitted < total && pending.size() < ahead) {
+                    final int locale = submitted / mTemplates.length;
+                    if (locale >= loadedFrom + loaded.size()) {
+                        loadedFrom = locale;
+                        loaded = mRepo.loadResources(Arrays.asList(mLocales)
+                                .subList(locale, Math.min(mLocales.length, locale + mThreads)));
+                    }
+                    pending.add(executor.submit(
+                            newTask(submitted++, loaded.get(locale - loadedFrom).snapshot())));
+                }
+
+                if (mCancelled)
+                    return false;
+
+                final String locale = mLocales[done / mTemplates.length];
+                final File template = mTemplates[done % mTemplates.length];
+                final ByteArrayOutputStream content;
+                try {
+                    content = pending.remove().get();
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                    mCancelled = true;
+                    return false;
+                } catch (ExecutionException e) {
+                    throw new IOException("Could not export " + template + " for " + locale, e.getCause());
+                }
+
+                // Nothing to write if there were no translations for this file
+                if (content != null)
+                    sink.write(getPath(locale, template), template, content);
+
+                ++done;
+                if (mProgress != null)
+                    mProgress.onUpdate(done, total, locale, template);
+            }
+            return !mCancelled;
+        } finally {
+            for (Future<ByteArrayOutputStream> future : pending)
+                future.cancel(true);
+
+            executor.shutdownNow();
+        }
+    }
+
+    // Applies the i'th template in order to the resources of its locale.
+    // The result is null if it can't be applied
+    private Callable<ByteArrayOutputStream> newTask(final int i, final Resources resources) {
+        final File template = mTemplates[i % mTemplates.length];
+        return new Callable<ByteArrayOutputStream>() {
+            @Override
+            public ByteArrayOutputStream call() {
+                if (mCancelled)
+                    return null;
+
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                return mRepo.applyTemplate(template, resources, out) ? out : null;
+            }
+        };
+    }
+
+    private ExecutorService newExecutor() {
+        return new ThreadPoolExecutor(mThreads, mThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "RepoExporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //endregion
+
+    //region Paths
+
+    private String getPath(final String locale, final File template) {
+        if (!locale.equals(mPathsLocale)) {
+            mPathsLocale = locale;
+            mPaths = mRepo.getTemplateRemotePaths(locale);
+        }
+
+        String path = mPaths.get(template);
+        if (path == null)
+            path = "values-" + locale + "/" + template.getName();
+
+        while (path.startsWith("/"))
+            path = path.substring(1);
+
+        return path;
+    }
+
+    //endregion
+}
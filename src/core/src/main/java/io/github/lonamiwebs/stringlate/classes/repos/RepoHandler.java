@@ -12,23 +12,35 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InvalidObjectException;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
 
 import io.github.lonamiwebs.stringlate.classes.Messenger;
 import io.github.lonamiwebs.stringlate.classes.git.GitHub;
 import io.github.lonamiwebs.stringlate.classes.locales.LocaleString;
+import io.github.lonamiwebs.stringlate.classes.resources.CompactResources;
 import io.github.lonamiwebs.stringlate.classes.resources.Resources;
+import io.github.lonamiwebs.stringlate.classes.resources.ResourcesCodec;
 import io.github.lonamiwebs.stringlate.classes.resources.ResourcesParser;
+import io.github.lonamiwebs.stringlate.classes.resources.SymbolTable;
+import io.github.lonamiwebs.stringlate.classes.resources.TemplatePlan;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResPlurals;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResStringArray;
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
 import io.github.lonamiwebs.stringlate.classes.sources.SourceSettings;
+import io.github.lonamiwebs.stringlate.interfaces.ResourcesVisitor;
 import io.github.lonamiwebs.stringlate.interfaces.StringsSource;
 
 // Represents a locally saved string repository, which can be synchronized from any StringsSource
@@ -46,6 +58,14 @@ public class RepoHandler implements Comparable<RepoHandler> {
 
     public static final String DEFAULT_LOCALE = "default";
 
+    // Templates are always applied as UTF-8
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Every handler for the same repository shares the same symbol table. They're only weakly
+    // referenced here, so a table goes away along with the last handler or Resources using it
+    private final static HashMap<File, WeakReference<SymbolTable>> symbolTables = new HashMap<>();
+    private final SymbolTable mSymbols;
+
     private final static ReentrantLock syncingLock = new ReentrantLock();
     private final static HashSet<File> rootsInSync = new HashSet<>();
     private StringsSource mSyncingSource;
@@ -64,6 +84,7 @@ public class RepoHandler implements Comparable<RepoHandler> {
         mSourceSettings = new SourceSettings(mRoot);
         settings.checkUpgradeSettingsToSpecific(mSourceSettings);
         mProgressFile = new File(mRoot, "translation_progress.json");
+        mSymbols = getSymbolTable(mRoot);
 
         loadLocales();
     }
@@ -76,6 +97,7 @@ public class RepoHandler implements Comparable<RepoHandler> {
         settings.checkUpgradeSettingsToSpecific(mSourceSettings);
 
         mProgressFile = new File(mRoot, "translation_progress.json");
+        mSymbols = getSymbolTable(mRoot);
 
         loadLocales();
     }
@@ -136,9 +158,34 @@ public class RepoHandler implements Comparable<RepoHandler> {
     // i.e. it is not the original downloaded file any more.
     // Note that previous modifications do NOT imply the file being unsaved.
     public boolean anyModified() {
-        for (String locale : mLocales)
-            if (Resources.fromFile(getResourcesFile(locale)).wasModified())
+        final boolean[] modified = {false};
+        final ResourcesVisitor finder = new ResourcesVisitor() {
+            @Override
+            public void onString(String id, String content, boolean m) {
+                modified[0] |= m;
+            }
+
+            @Override
+            public void onArrayItem(String arrayId, int index, String content, boolean m) {
+                modified[0] |= m;
+            }
+
+            @Override
+            public void onPluralItem(String pluralsId, String quantity, String content, boolean m) {
+                modified[0] |= m;
+            }
+
+            @Override
+            public void onEnd() {
+            }
+        };
+
+        // There is no need to load the whole file in memory to tell this
+        for (String locale : mLocales) {
+            ResourcesParser.visitFile(getResourcesFile(locale), finder);
+            if (modified[0])
                 return true;
+        }
         return false;
     }
 
@@ -149,7 +196,12 @@ public class RepoHandler implements Comparable<RepoHandler> {
 
     // Deletes the repository erasing its existence from Earth. Forever. (Unless added again)
     public boolean delete() {
+        FileUtils.deleteRecursive(getSnapshotsDir());
+        synchronized (symbolTables) {
+            symbolTables.remove(mRoot);
+        }
         boolean ok = FileUtils.deleteRecursive(mRoot);
+        ResourcesCache.get().invalidateDirectory(mRoot);
         Messenger.notifyRepoRemoved(this);
         return ok;
     }
@@ -162,6 +214,34 @@ public class RepoHandler implements Comparable<RepoHandler> {
         return new File(mCacheDir, "tmp_import_backup");
     }
 
+    // Directory where the binary snapshots of the given locale files are kept,
+    // so they can be loaded again without parsing them (see Resources.fromFile)
+    private File getSnapshotDir(final String locale) {
+        return new File(getSnapshotsDir(), locale);
+    }
+
+    private File getSnapshotsDir() {
+        return new File(mCacheDir, "snapshots/" + mRoot.getName());
+    }
+
+    private static SymbolTable getSymbolTable(final File root) {
+        synchronized (symbolTables) {
+            final WeakReference<SymbolTable> ref = symbolTables.get(root);
+            SymbolTable result = ref == null ? null : ref.get();
+            if (result == null) {
+                // Forget about the tables of the repositories no longer in use
+                final Iterator<WeakReference<SymbolTable>> it = symbolTables.values().iterator();
+                while (it.hasNext())
+                    if (it.next().get() == null)
+                        it.remove();
+
+                result = new SymbolTable();
+                symbolTables.put(root, new WeakReference<>(result));
+            }
+            return result;
+        }
+    }
+
     private static String getId(String gitUrl) {
         return Integer.toHexString(gitUrl.hashCode());
     }
@@ -288,25 +368,31 @@ public class RepoHandler implements Comparable<RepoHandler> {
         // Delete all the previous default resources since their
         // names might have changed, been removed, or some new added.
         settings.clearRemotePaths();
-        for (File f : getDefaultResourcesFiles())
-            if (!f.delete())
+        for (File f : getDefaultResourcesFiles()) {
+            final boolean deleted = f.delete();
+            ResourcesCache.get().invalidate(f);
+            if (!deleted)
                 return false;
+        }
 
-        for (String locale : source.getLocales()) {
-            if (locale == null)
-                continue; // Should not happen
+        final ArrayList<String> locales = new ArrayList<>();
+        for (String locale : source.getLocales())
+            if (locale != null) // Should not happen
+                locales.add(locale);
 
-            // Load in memory the old saved resources. We need to work
-            // on this file because we're going to be merging changes.
-            Resources resources = loadResources(locale);
+        // Load in memory the old saved resources, all of them at once. We need
+        // to work on these files because we're going to be merging changes.
+        final ArrayList<Resources> localeResources = loadResources(locales);
+        for (int i = 0; i < locales.size(); ++i) {
+            final Resources resources = localeResources.get(i);
 
-            // Add new translated tags without overwriting existing ones
-            for (ResTag rt : source.getResources(locale))
+            // Add new translated tags without overwriting existing ones, and save the changes
+            final ArrayList<Resources.Edit> edits = new ArrayList<>();
+            for (ResTag rt : source.getResources(locales.get(i)))
                 if (!resources.wasModified(rt.getId()))
-                    resources.addTag(rt);
+                    edits.add(Resources.Edit.addTag(rt));
 
-            // Save the changes
-            resources.save();
+            resources.applyBatch(edits);
         }
 
         callback.onUpdate(2, (1f / 3f));
@@ -321,13 +407,15 @@ public class RepoHandler implements Comparable<RepoHandler> {
             if (xml == null) {
                 // We don't know how the original XML looked like, that's okay
                 final Resources resources = Resources.fromFile(resourceFile);
+                final ArrayList<Resources.Edit> edits = new ArrayList<>();
                 for (ResTag rt : source.getDefaultResource(originalName))
-                    resources.addTag(rt); // Copy the resources to the new local file
+                    edits.add(Resources.Edit.addTag(rt)); // Copy the resources to the new local file
 
-                okay = resources.save();
+                okay = resources.applyBatch(edits).saved;
             } else {
                 // We have the original XML available, so clean it up and preserve its structure
                 okay = ResourcesParser.cleanXml(xml, resourceFile);
+                ResourcesCache.get().invalidate(resourceFile);
             }
 
             if (okay) {
@@ -336,9 +424,12 @@ public class RepoHandler implements Comparable<RepoHandler> {
             } else {
                 // Something went wrong, either saving, cleaning the XML, or it has no strings
                 // Clean up the file we may have made, if it exists, or give up if it fails
-                if (resourceFile.isFile())
-                    if (!resourceFile.delete())
+                if (resourceFile.isFile()) {
+                    final boolean deleted = resourceFile.delete();
+                    ResourcesCache.get().invalidate(resourceFile);
+                    if (!deleted)
                         return false;
+                }
             }
         }
 
@@ -368,24 +459,18 @@ public class RepoHandler implements Comparable<RepoHandler> {
     private void unusedStringsCleanup() {
         final Resources defaultResources = loadDefaultResources();
 
-        for (String locale : getLocales()) {
-            if (locale.equals(DEFAULT_LOCALE))
-                continue;
-
-            final Resources resources = loadResources(locale);
-
+        final ArrayList<String> locales = new ArrayList<>(getLocales());
+        locales.remove(DEFAULT_LOCALE);
+        for (Resources resources : loadResources(locales)) {
             // Find those which we need to remove (we can't remove them right
             // away unless with used an Iterator<ResTag>, but this also works)
-            final ArrayList<String> toRemove = new ArrayList<>();
+            final ArrayList<Resources.Edit> toRemove = new ArrayList<>();
             for (ResTag rt : resources)
                 if (!defaultResources.contains(rt.getId()))
-                    toRemove.add(rt.getId());
+                    toRemove.add(Resources.Edit.deleteId(rt.getId()));
 
             // Do remove the unused strings and save
-            for (String remove : toRemove)
-                resources.deleteId(remove);
-
-            resources.save();
+            resources.applyBatch(toRemove);
         }
     }
 
@@ -393,19 +478,118 @@ public class RepoHandler implements Comparable<RepoHandler> {
 
     //region Loading resources
 
+    // Resources are cached (see ResourcesCache), so loading them again while the files
+    // don't change is cheap, and every call returns a copy which can be changed freely
     public Resources loadDefaultResources() {
         // Mix up all the resource files into one
-        Resources resources = Resources.empty();
-        for (File f : getDefaultResourcesFiles()) {
-            for (ResTag rt : Resources.fromFile(f)) {
-                resources.addTag(rt);
+        final File[] files = getDefaultResourcesFiles();
+        return ResourcesCache.get().getResources(files, new ResourcesCache.Loader<Resources>() {
+            @Override
+            public Resources load() {
+                return Resources.fromFiles(Arrays.asList(files),
+                        getSnapshotDir(DEFAULT_LOCALE), mSymbols);
             }
-        }
-        return resources;
+        });
+    }
+
+    // Same as above, but the content of the strings is only read when needed,
+    // which is much faster and lighter when only some of them will be used
+    public Resources loadDefaultResourcesLazily() {
+        return Resources.fromFilesLazily(Arrays.asList(getDefaultResourcesFiles()),
+                getSnapshotDir(DEFAULT_LOCALE), mSymbols);
     }
 
     public Resources loadResources(final String locale) {
-        return Resources.fromFile(getResourcesFile(locale));
+        final File file = getResourcesFile(locale);
+        return ResourcesCache.get().getResources(new File[]{file}, new ResourcesCache.Loader<Resources>() {
+            @Override
+            public Resources load() {
+                return Resources.fromFile(file, getSnapshotDir(locale), mSymbols);
+            }
+        });
+    }
+
+    // Read-only version of the above, much lighter when several locales need to be
+    // loaded at once only to look up some of their strings
+    public CompactResources loadCompactResources(final String locale) {
+        final File file = getResourcesFile(locale);
+        return ResourcesCache.get().get("CompactResources", new File[]{file},
+                new ResourcesCache.Loader<CompactResources>() {
+                    @Override
+                    public CompactResources load() {
+                        return CompactResources.fromFile(file, getSnapshotDir(locale), mSymbols);
+                    }
+                });
+    }
+
+    // Loads the resources of all the given locales at once, in the same order. Those which
+    // aren't cached yet are parsed together, in parallel if possible (see ResourcesCodec.loadAll)
+    public ArrayList<Resources> loadResources(final List<String> locales) {
+        final ArrayList<File> files = new ArrayList<>();
+        final ArrayList<File> snapshotDirs = new ArrayList<>();
+        for (String locale : locales) {
+            final File file = getResourcesFile(locale);
+            if (!ResourcesCache.get().containsResources(new File[]{file})) {
+                files.add(file);
+                snapshotDirs.add(getSnapshotDir(locale));
+            }
+        }
+
+        // Those just loaded are handed to the cache, which will keep them as usual
+        final ArrayList<Resources> loaded = ResourcesCodec.get().loadAll(files, snapshotDirs, mSymbols);
+        final ArrayList<Resources> result = new ArrayList<>(locales.size());
+        for (String locale : locales) {
+            final File file = getResourcesFile(locale);
+            final int i = files.indexOf(file);
+            if (i < 0) {
+                result.add(loadResources(locale));
+            } else {
+                final Resources resources = loaded.get(i);
+                result.add(ResourcesCache.get().getResources(new File[]{file},
+                        new ResourcesCache.Loader<Resources>() {
+                            @Override
+                            public Resources load() {
+                                return resources;
+                            }
+                        }));
+            }
+        }
+        return result;
+    }
+
+    // Read-only version of the above (see loadCompactResources)
+    public ArrayList<CompactResources> loadCompactResources(final List<String> locales) {
+        final ArrayList<File> files = new ArrayList<>();
+        final ArrayList<File> snapshotDirs = new ArrayList<>();
+        for (String locale : locales) {
+            final File file = getResourcesFile(locale);
+            if (!ResourcesCache.get().contains("CompactResources", new File[]{file})) {
+                files.add(file);
+                snapshotDirs.add(getSnapshotDir(locale));
+            }
+        }
+
+        final ArrayList<CompactResources> loaded =
+                ResourcesCodec.get().loadAllCompact(files, snapshotDirs, mSymbols);
+
+        final ArrayList<CompactResources> result = new ArrayList<>(locales.size());
+        for (String locale : locales) {
+            final File file = getResourcesFile(locale);
+            final int i = files.indexOf(file);
+            if (i < 0) {
+                result.add(loadCompactResources(locale));
+            } else {
+                final CompactResources compact = loaded.get(i);
+                result.add(ResourcesCache.get().get("CompactResources", new File[]{file},
+                        new ResourcesCache.Loader<CompactResources>() {
+                            @Override
+                            public CompactResources load() {
+                                return compact;
+                            }
+                        }));
+            }
+        }
+        return result;
     }
 
     // Returns "" if the template wasn't applied successfully (never null)
@@ -413,7 +597,7 @@ public class RepoHandler implements Comparable<RepoHandler> {
     public String applyTemplate(final File template, final String locale) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         if (applyTemplate(template, locale, out))
-            return out.toString();
+            return new String(out.toByteArray(), UTF_8);
         else
             return "";
     }
@@ -424,21 +608,60 @@ public class RepoHandler implements Comparable<RepoHandler> {
     // there will be no strings to replace.
     public boolean canApplyTemplate(File template, String locale) {
         if (hasLocale(locale) && template.isFile()) {
-            Resources templateResources = Resources.fromFile(template);
-            Resources localeResources = loadResources(locale);
-            for (ResTag rt : localeResources)
-                if (templateResources.contains(rt.getId()))
-                    return true;
+            // Stream the template rather than loading it, we only need its IDs
+            final Resources localeResources = loadResources(locale);
+            final boolean[] found = {false};
+            ResourcesParser.visitFile(template, new ResourcesVisitor() {
+                @Override
+                public void onString(String id, String content, boolean modified) {
+                    // References are not loaded as part of the resources, so skip them
+                    if (!content.trim().startsWith("@"))
+                        found[0] |= localeResources.contains(id);
+                }
+
+                @Override
+                public void onArrayItem(String arrayId, int index, String content, boolean modified) {
+                    if (!content.trim().startsWith("@"))
+                        found[0] |= localeResources.contains(ResStringArray.getItemId(arrayId, index));
+                }
+
+                @Override
+                public void onPluralItem(String pluralsId, String quantity, String content, boolean modified) {
+                    if (!content.trim().startsWith("@"))
+                        found[0] |= localeResources.contains(ResPlurals.getItemId(pluralsId, quantity));
+                }
+
+                @Override
+                public void onEnd() {
+                }
+            });
+            return found[0];
         }
         return false;
     }
 
-    // TODO Why do I load the resources all the time - can't I just pass the loaded one?
     // Returns TRUE if the template was applied successfully
     public boolean applyTemplate(final File template, final String locale, final OutputStream out) {
         return hasLocale(locale) &&
                 template.isFile() &&
-                ResourcesParser.applyTemplate(template, loadResources(locale), out);
+                loadTemplatePlan(template).apply(loadResources(locale), out);
+    }
+
+    // Same as above, but applying the template to the given resources, which are only read
+    public boolean applyTemplate(final File template, final Resources resources, final OutputStream out) {
+        return template.isFile() && loadTemplatePlan(template).apply(resources, out);
+    }
+
+    // The same templates are applied to every locale, so they're only analyzed once for
+    // all of them, and again when they change (they're cached just like the resources)
+    public TemplatePlan loadTemplatePlan(final File template) {
+        return ResourcesCache.get().get("TemplatePlan", new File[]{template},
+                new ResourcesCache.Loader<TemplatePlan>() {
+                    @Override
+                    public TemplatePlan load() {
+                        return TemplatePlan.fromFile(template);
+                    }
+                });
     }
 
     // Never returns null
@@ -457,15 +680,15 @@ public class RepoHandler implements Comparable<RepoHandler> {
         for (File template : files) {
             String path = paths.get(template.getName());
             try {
-                out.write(beforeName.getBytes());
-                out.write((path == null ? template.getName() : path).getBytes());
-                out.write(betweenNameXml.getBytes());
+                out.write(beforeName.getBytes(UTF_8));
+                out.write((path == null ? template.getName() : path).getBytes(UTF_8));
+                out.write(betweenNameXml.getBytes(UTF_8));
                 applyTemplate(template, locale, out);
-                out.write(afterXml.getBytes());
+                out.write(afterXml.getBytes(UTF_8));
             } catch (IOException ignored) {
             }
         }
-        return out.toString();
+        return new String(out.toByteArray(), UTF_8);
     }
 
     //endregion
@@ -680,9 +903,14 @@ public class RepoHandler implements Comparable<RepoHandler> {
             if (!mRoot.renameTo(backupDir))
                 throw new IOException("Could not move the current repository to its backup location.");
 
-            if (!root.renameTo(mRoot)) {
+            // Every file of the repository is replaced, so nothing cached from it can be used
+            final boolean moved = root.renameTo(mRoot);
+            ResourcesCache.get().invalidateDirectory(mRoot);
+            FileUtils.deleteRecursive(getSnapshotsDir());
+            if (!moved) {
                 // Try reverting the state, hopefully no data was lost
                 String extra = backupDir.renameTo(mRoot) ? "" : " Failed to recover its previous state.";
+                ResourcesCache.get().invalidateDirectory(mRoot);
                 throw new IOException("Could not move the temporary repository to its new location." + extra);
             }
 
@@ -0,0 +1,293 @@
+package io.github.lonamiwebs.stringlate.classes.repos;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.github.lonamiwebs.stringlate.classes.resources.Resources;
+
+// Process-wide cache of the resources loaded from the repositories, so that loading the same
+// files again (e.g. every locale when peeking a translation, or a locale once per template)
+// doesn't go through the disk every time.
+//
+// Every entry remembers the length and the last modification time of its files, and it's
+// only used while these stay the same. Saving or deleting the files through Resources also
+// drops their entries right away, since that may happen within the same modification time,
+// and so must whoever writes to the files in any other way (see RepoHandler).
+//
+// The entries are kept in least recently used order, and the oldest are dropped once their
+// estimated size goes over the budget. The values themselves are never changed: resources
+// are kept as snapshots (see Resources.snapshot), and everyone gets their own copy of them.
+public class ResourcesCache {
+
+    //region Members
+
+    public interface Loader<T> {
+        T load();
+    }
+
+    // Estimated bytes of memory taken per byte of the files loaded, since the
+    // strings take twice as much as UTF-16, and then there are the tags themselves
+    private static final int MEMORY_PER_FILE_BYTE = 4;
+
+    private static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static final ResourcesCache instance = new ResourcesCache();
+
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxBytes = DEFAULT_MAX_BYTES;
+    private long mBytes;
+
+    // Increased every time something is invalidated, so that what was being
+    // loaded at the same time isn't kept, since it may be outdated already
+    private long mGeneration;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    private static class Key {
+        final String kind;
+        final File[] files;
+        final int hash;
+
+        Key(final String kind, final File[] files) {
+            this.kind = kind;
+            this.files = files;
+            hash = kind.hashCode() * 31 + Arrays.hashCode(files);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+
+            final Key other = (Key) o;
+            return kind.equals(other.kind) && Arrays.equals(files, other.files);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        final Object value;
+        final long[] lengths;
+        final long[] modified;
+        final long bytes;
+
+        Entry(final Object value, final long[] lengths, final long[] modified, final long bytes) {
+            this.value = value;
+            this.lengths = lengths;
+            this.modified = modified;
+            this.bytes = bytes;
+        }
+    }
+
+    //endregion
+
+    //region Constructors
+
+    public static ResourcesCache get() {
+        return instance;
+    }
+
+    private ResourcesCache() {
+        Resources.addOnFileChangedListener(new Resources.OnFileChanged() {
+            @Override
+            public void onFileChanged(File file) {
+                invalidate(file);
+            }
+        });
+    }
+
+    //endregion
+
+    //region Loading
+
+    // Returns a copy of the resources for the given files, which must be what the loader
+    // loads, using the cached version if they didn't change since they were last loaded
+    public Resources getResources(final File[] files, final Loader<Resources> loader) {
+        final Resources snapshot = get("Resources", files, new Loader<Resources>() {
+            @Override
+            public Resources load() {
+                return loader.load().snapshot();
+            }
+        });
+        return snapshot.mutableCopy();
+    }
+
+    // Returns the value for the given kind and files, which must be what the loader loads
+    // and never be changed afterwards, using the cached version if the files didn't change
+    @SuppressWarnings("unchecked")
+    public <T> T get(final String kind, final File[] files, final Loader<T> loader) {
+        final Key key = new Key(kind, files.clone());
+        final long[] lengths = new long[files.length];
+        final long[] modified = new long[files.length];
+        long fileBytes = 0;
+        for (int i = 0; i < files.length; ++i) {
+            lengths[i] = files[i].length();
+            modified[i] = files[i].lastModified();
+            fileBytes += lengths[i];
+        }
+
+        final long generation;
+        synchronized (this) {
+            final Entry entry = mEntries.get(key);
+            if (entry != null) {
+                if (Arrays.equals(entry.lengths, lengths) && Arrays.equals(entry.modified, modified)) {
+                    ++mHits;
+                    return (T) entry.value;
+                }
+                remove(key);
+            }
+            ++mMisses;
+            generation = mGeneration;
+        }
+
+        // Loading may take a while, so the cache isn't locked meanwhile
+        final T value = loader.load();
+        final long bytes = fileBytes * MEMORY_PER_FILE_BYTE;
+        synchronized (this) {
+            if (generation == mGeneration && bytes <= mMaxBytes) {
+                remove(key);
+                mEntries.put(key, new Entry(value, lengths, modified, bytes));
+                mBytes += bytes;
+                trim();
+            }
+        }
+        return value;
+    }
+
+    // Whether the resources for the given files are cached and up to date (see contains)
+    public boolean containsResources(final File[] files) {
+        return contains("Resources", files);
+    }
+
+    // Whether the value for the given kind and files is cached and up to date, so that those
+    // loading many values at once can leave out what they would get from here anyway
+    public synchronized boolean contains(final String kind, final File[] files) {
+        final Entry entry = mEntries.get(new Key(kind, files));
+        if (entry == null)
+            return false;
+
+        for (int i = 0; i < files.length; ++i)
+            if (entry.lengths[i] != files[i].length() || entry.modified[i] != files[i].lastModified())
+                return false;
+
+        return true;
+    }
+
+    //endregion
+
+    //region Invalidating
+
+    // Drops every entry which uses the given file
+    public synchronized void invalidate(final File file) {
+        ++mGeneration;
+        final Iterator<Map.Entry<Key, Entry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, Entry> entry = it.next();
+            for (File f : entry.getKey().files) {
+                if (f.equals(file)) {
+                    mBytes -= entry.getValue().bytes;
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    // Drops every entry which uses any file inside the given directory
+    public synchronized void invalidateDirectory(final File dir) {
+        ++mGeneration;
+        final Iterator<Map.Entry<Key, Entry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, Entry> entry = it.next();
+            if (anyInside(entry.getKey().files, dir)) {
+                mBytes -= entry.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    private static boolean anyInside(final File[] files, final File dir) {
+        for (File f : files)
+            for (File parent = f.getParentFile(); parent != null; parent = parent.getParentFile())
+                if (parent.equals(dir))
+                    return true;
+
+        return false;
+    }
+
+    public synchronized void clear() {
+        ++mGeneration;
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    private void remove(final Key key) {
+        final Entry entry = mEntries.remove(key);
+        if (entry != null)
+            mBytes -= entry.bytes;
+    }
+
+    // Drops the least recently used entries until they fit in the budget
+    private void trim() {
+        final Iterator<Entry> it = mEntries.values().iterator();
+        while (mBytes > mMaxBytes && it.hasNext()) {
+            mBytes -= it.next().bytes;
+            it.remove();
+            ++mEvictions;
+        }
+    }
+
+    //endregion
+
+    //region Settings and statistics
+
+    public synchronized void setMaxBytes(final long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("The budget cannot be negative");
+
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    // Estimated memory taken by the cached entries
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    public synchronized void resetStatistics() {
+        mHits = 0;
+        mMisses = 0;
+        mEvictions = 0;
+    }
+
+    //endregion
+}
@@ -0,0 +1,246 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Class used to save Resources in the background some time after they change, rather than
+// every time they change. All the changes made in a row result in a single save, once there
+// are no more changes for a quiet period, or once the maximum delay since the first of them
+// passes (so that they're not held forever), whichever comes first.
+//
+// Flushing can also be requested at any time, e.g. when the activity is paused or stopped.
+// Resources which fail to save are marked as dirty again, so that saving them is retried,
+// waiting twice as long after every failure in a row. After a few of them, saving is only
+// tried again on the next change or flush, instead of retrying it again and again.
+public class AutosaveScheduler {
+
+    //region Members
+
+    public interface OnFlush {
+        // Called from the background thread after saving the resources. The latency is the
+        // time since they were first marked as dirty until they were saved, and the duration
+        // is what saving them took, both in milliseconds. Failures is how many times in a row
+        // saving them failed, this one included (so it's 0 if they were saved, and 1 when
+        // saving them fails for the first time since they were last saved)
+        void onFlush(Resources resources, boolean saved, int failures,
+                     long latencyMillis, long durationMillis);
+    }
+
+    // How many times saving is retried after failing before waiting for a change
+    private static final int MAX_RETRIES = 5;
+
+    // Retries don't wait longer than this, no matter how many failed before
+    private static final long MAX_RETRY_DELAY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final long mQuietNanos;
+    private final long mMaxDelayNanos;
+    private final OnFlush mListener; // May be null
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    // Dirty resources, and the time at which they were first marked as dirty
+    private final IdentityHashMap<Resources, Long> mDirty = new IdentityHashMap<>();
+    private long mFirstChange;
+    private long mLastChange;
+
+    // Failed saves in a row of the resources which failed to save, and the time
+    // before which they're not retried (unless they change or are flushed)
+    private final IdentityHashMap<Resources, Integer> mFailures = new IdentityHashMap<>();
+    private long mRetryAt;
+    private boolean mScheduled;
+    private boolean mShutdown;
+
+    //endregion
+
+    //region Constructor
+
+    public AutosaveScheduler(final long quietMillis, final long maxDelayMillis,
+                             final OnFlush listener) {
+        if (quietMillis < 0 || maxDelayMillis < quietMillis)
+            throw new IllegalArgumentException("Invalid quiet period or maximum delay");
+
+        mQuietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        mMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        mListener = listener;
+
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "AutosaveScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //endregion
+
+    //region Scheduling
+
+    // Marks the resources as dirty, to be saved once the quiet period or maximum delay pass
+    public synchronized void markDirty(final Resources resources) {
+        if (mShutdown)
+            throw new IllegalStateException("The scheduler was shut down");
+
+        // A change is saved as usual, even if previous saves failed and are being retried later
+        mRetryAt = 0;
+        markDirty(resources, System.nanoTime());
+    }
+
+    // Must be called with the lock held. If the resources were already dirty,
+    // they keep the time at which they were first marked, not the given one
+    private void markDirty(final Resources resources, final long since) {
+        final long now = System.nanoTime();
+        if (!mDirty.containsKey(resources))
+            mDirty.put(resources, since);
+
+        mLastChange = now;
+
+        // Rather than rescheduling on every change, the flush checks whether it's due yet
+        if (!mScheduled && !mShutdown) {
+            mScheduled = true;
+            mFirstChange = now;
+            mExecutor.schedule(mScheduledFlush, mQuietNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Must be called with the lock held, after saving the resources failed. They're marked
+    // as dirty again to retry saving them later, or just kept dirty after too many failures
+    private int markFailed(final Resources resources, final long since) {
+        final Integer previous = mFailures.get(resources);
+        final int failures = previous == null ? 1 : previous + 1;
+        mFailures.put(resources, failures);
+
+        if (failures > MAX_RETRIES) {
+            // They'll be saved along with the next change or flush
+            if (!mDirty.containsKey(resources))
+                mDirty.put(resources, since);
+        } else {
+            final long delay = Math.min(mQuietNanos << (failures - 1), MAX_RETRY_DELAY_NANOS);
+            mRetryAt = Math.max(mRetryAt, System.nanoTime() + delay);
+            markDirty(resources, since);
+        }
+        return failures;
+    }
+
+    public synchronized boolean isDirty() {
+        return !mDirty.isEmpty();
+    }
+
+    // Saves the dirty resources right away in the background
+    public synchronized void flush() {
+        if (!mShutdown)
+            mExecutor.submit(mFlush);
+    }
+
+    // Saves the dirty resources right away, waiting until they're saved.
+    // Returns true if all of them (if any) were saved successfully
+    public boolean flushAndWait() {
+        final Future<Boolean> result;
+        synchronized (this) {
+            if (mShutdown)
+                return mDirty.isEmpty();
+            result = mExecutor.submit(mFlush);
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Saves the dirty resources in the background, and then stops the background thread.
+    // It doesn't wait for them to be saved (use flushAndWait() before for that), and no
+    // resources can be marked as dirty after this
+    public void shutdown() {
+        synchronized (this) {
+            if (mShutdown)
+                return;
+
+            mShutdown = true;
+            mExecutor.submit(mFlush);
+        }
+        mExecutor.shutdown();
+    }
+
+    //endregion
+
+    //region Flushing
+
+    private final Runnable mScheduledFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (AutosaveScheduler.this) {
+                if (mDirty.isEmpty()) {
+                    mScheduled = false;
+                    return;
+                }
+
+                final long now = System.nanoTime();
+                final long due = Math.max(mRetryAt,
+                        Math.min(mLastChange + mQuietNanos, mFirstChange + mMaxDelayNanos));
+                if (now < due) {
+                    mExecutor.schedule(this, due - now, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                mScheduled = false;
+            }
+            flushDirty();
+        }
+    };
+
+    private final Callable<Boolean> mFlush = new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+            return flushDirty();
+        }
+    };
+
+    // Always runs on the background thread, so the saves never overlap.
+    // Returns true if all the dirty resources (if any) were saved successfully
+    private boolean flushDirty() {
+        final Resources[] dirty;
+        final long[] since;
+        synchronized (this) {
+            dirty = mDirty.keySet().toArray(new Resources[mDirty.size()]);
+            since = new long[dirty.length];
+            for (int i = 0; i < dirty.length; ++i)
+                since[i] = mDirty.get(dirty[i]);
+
+            mDirty.clear();
+        }
+
+        boolean ok = true;
+        for (int i = 0; i < dirty.length; ++i) {
+            final long start = System.nanoTime();
+            final boolean saved = dirty[i].save();
+            final long end = System.nanoTime();
+            ok &= saved;
+
+            // Saving it will be tried again later, unless the scheduler was shut down
+            final int failures;
+            synchronized (this) {
+                if (saved) {
+                    mFailures.remove(dirty[i]);
+                    failures = 0;
+                } else {
+                    failures = markFailed(dirty[i], since[i]);
+                }
+            }
+
+            if (mListener != null)
+                mListener.onFlush(dirty[i], saved, failures,
+                        TimeUnit.NANOSECONDS.toMillis(end - since[i]),
+                        TimeUnit.NANOSECONDS.toMillis(end - start));
+        }
+        return ok;
+    }
+
+    //endregion
+}
@@ -0,0 +1,385 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import java.io.File;
+
+import io.github.lonamiwebs.stringlate.interfaces.ResourcesVisitor;
+
+// Read-only alternative to Resources, meant for when many of them need to be kept in memory
+// at once only to look up some strings, such as when peeking the translations of every locale.
+//
+// Instead of a ResTag per string, indexed by its full ID, the tags are stored as parallel
+// arrays of the symbols (unique strings) they use: their ID (or their parent's ID, for items),
+// their index or quantity, and their content. The key of every tag is then hashed into an
+// open addressing table that points to its slot on these arrays. Items don't need their own
+// ID strings to be built, and looking up or iterating over the tags allocates nothing.
+//
+// The content of the tags and what's considered part of them is the same as with Resources.
+public class CompactResources {
+
+    //region Members
+
+    private static final byte STRING = 0;
+    private static final byte ARRAY_ITEM = 1;
+    private static final byte PLURAL_ITEM = 2;
+    private static final byte PARENT = 3; // Points to any item of the parent, not a tag itself
+
+    private final SymbolTable mSharedSymbols; // May be null
+
+    // Symbols, and the open addressing table (symbol + 1, or 0 if empty) to find them
+    private String[] mSymbols = new String[64];
+    private int mSymbolCount;
+    private int[] mSymbolTable = new int[128];
+
+    // Tags, by slot
+    private byte[] mKinds = new byte[32];
+    private int[] mIds = new int[32]; // Symbol of the ID, or the parent's ID for items
+    private int[] mCodes = new int[32]; // Index of array items, symbol of plurals quantity
+    private int[] mContents = new int[32]; // Symbol of the content
+    private long[] mModified = new long[1]; // Bit set
+    private int mCount;
+
+    // Open addressing table ((slot + 1), or 0 if empty) to find the slot of every key.
+    // Parents are kept here too, with their sign bit set, pointing to any of their items
+    private int[] mKeyTable = new int[64];
+    private int mKeyCount;
+
+    private boolean mAnyModified;
+
+    //endregion
+
+    //region Constructors
+
+    // Loads the file the same way Resources.fromFile does, snapshots included.
+    // Both the snapshot directory and the symbol table may be null.
+    public static CompactResources fromFile(final File file, final File snapshotDir,
+                                            final SymbolTable symbols) {
+        final CompactResources result = new CompactResources(symbols);
+        if (snapshotDir == null)
+            ResourcesCodec.get().visit(file, result.newBuilder());
+        else
+            ResourcesCodec.get().visit(file, Resources.getSnapshotFile(file, snapshotDir),
+                    result.newBuilder());
+
+        return result;
+    }
+
+    private CompactResources(final SymbolTable symbols) {
+        mSharedSymbols = symbols;
+    }
+
+    //endregion
+
+    //region Getting content
+
+    public int count() {
+        return mCount;
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    public boolean contains(final String resourceId) {
+        return find(resourceId) >= 0;
+    }
+
+    public String getContent(final String resourceId) {
+        final int slot = find(resourceId);
+        return slot < 0 ? "" : mSymbols[mContents[slot]];
+    }
+
+    // Determines whether the resource ID was modified or not
+    // If this resource ID doesn't exist, then it obviously wasn't modified
+    public boolean wasModified(final String resourceId) {
+        final int slot = find(resourceId);
+        return slot >= 0 && isModified(slot);
+    }
+
+    // Determines whether any of the strings loaded was modified
+    public boolean wasModified() {
+        return mAnyModified;
+    }
+
+    // Visits every tag, in no particular order
+    public void accept(final ResourcesVisitor visitor) {
+        for (int slot = 0; slot < mCount; ++slot) {
+            final String id = mSymbols[mIds[slot]];
+            final String content = mSymbols[mContents[slot]];
+            switch (mKinds[slot]) {
+                case STRING:
+                    visitor.onString(id, content, isModified(slot));
+                    break;
+                case ARRAY_ITEM:
+                    visitor.onArrayItem(id, mCodes[slot], content, isModified(slot));
+                    break;
+                case PLURAL_ITEM:
+                    visitor.onPluralItem(id, mSymbols[mCodes[slot]], content, isModified(slot));
+                    break;
+            }
+        }
+        visitor.onEnd();
+    }
+
+    private boolean isModified(final int slot) {
+        return (mModified[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    //endregion
+
+    //region Finding tags
+
+    // Returns the slot of the tag with the given ID (see ResType.markID and the items'
+    // getItemId), or -1 if it doesn't exist. Like Resources.getTag, the ID of a parent
+    // results in any of its items. The ID is parsed in place, without any substring.
+    private int find(final String id) {
+        final int colon = id.lastIndexOf(':');
+        if (colon < 0) {
+            final int symbol = findSymbol(id, 0, id.length());
+            if (symbol < 0)
+                return -1;
+
+            final int slot = findKey(STRING, symbol, 0);
+            return slot >= 0 ? slot : findKey(PARENT, symbol, 0);
+        }
+
+        final int parent = findSymbol(id, 0, colon);
+        if (parent < 0 || colon < 2 || id.charAt(colon - 2) != '#')
+            return -1;
+
+        switch (id.charAt(colon - 1)) {
+            case 'a':
+                final int index = parseIndex(id, colon + 1);
+                return index < 0 ? -1 : findKey(ARRAY_ITEM, parent, index);
+            case 'p':
+                final int quantity = findSymbol(id, colon + 1, id.length());
+                return quantity < 0 ? -1 : findKey(PLURAL_ITEM, parent, quantity);
+            default:
+                return -1;
+        }
+    }
+
+    private static int parseIndex(final String id, final int start) {
+        if (start >= id.length() || id.length() - start > 9)
+            return -1;
+
+        int result = 0;
+        for (int i = start; i < id.length(); ++i) {
+            final char c = id.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private int findKey(final byte kind, final int id, final int code) {
+        final int mask = mKeyTable.length - 1;
+        for (int i = hashKey(kind, id, code) & mask; ; i = (i + 1) & mask) {
+            final int entry = mKeyTable[i];
+            if (entry == 0)
+                return -1;
+
+            final int slot = (entry & 0x7fffffff) - 1;
+            if (matches(entry, slot, kind, id, code))
+                return slot;
+        }
+    }
+
+    private boolean matches(final int entry, final int slot,
+                            final byte kind, final int id, final int code) {
+        if (mIds[slot] != id)
+            return false;
+
+        if (kind == PARENT)
+            return entry < 0;
+        else
+            return entry > 0 && mKinds[slot] == kind && mCodes[slot] == code;
+    }
+
+    private static int hashKey(final byte kind, final int id, final int code) {
+        int h = (id * 31 + code) * 31 + kind;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    // Finds the symbol for the given region of the string, or returns -1
+    private int findSymbol(final String string, final int start, final int end) {
+        final int hash = hashRegion(string, start, end);
+        final int mask = mSymbolTable.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            final int entry = mSymbolTable[i];
+            if (entry == 0)
+                return -1;
+
+            final String symbol = mSymbols[entry - 1];
+            if (symbol.length() == end - start && symbol.regionMatches(0, string, start, end - start))
+                return entry - 1;
+        }
+    }
+
+    // Same as String.hashCode, but for a region of it
+    private static int hashRegion(final String string, final int start, final int end) {
+        if (start == 0 && end == string.length())
+            return string.hashCode();
+
+        int h = 0;
+        for (int i = start; i < end; ++i)
+            h = 31 * h + string.charAt(i);
+        return h;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    //endregion
+
+    //region Building
+
+    private ResourcesVisitor newBuilder() {
+        return new ResourcesVisitor() {
+            @Override
+            public void onString(String id, String content, boolean modified) {
+                put(STRING, addSymbol(id), 0, content, modified);
+            }
+
+            @Override
+            public void onArrayItem(String arrayId, int index, String content, boolean modified) {
+                put(ARRAY_ITEM, addSymbol(arrayId), index, content, modified);
+            }
+
+            @Override
+            public void onPluralItem(String pluralsId, String quantity, String content, boolean modified) {
+                put(PLURAL_ITEM, addSymbol(pluralsId), addSymbol(quantity), content, modified);
+            }
+
+            @Override
+            public void onEnd() {
+            }
+        };
+    }
+
+    private void put(final byte kind, final int id, final int code,
+                     String content, final boolean modified) {
+        mAnyModified |= modified;
+
+        // References are not loaded as normal strings (see Resources.loadTag)
+        content = content.trim();
+        if (content.startsWith("@"))
+            return;
+
+        int slot = findKey(kind, id, code);
+        if (slot < 0) {
+            slot = mCount++;
+            ensureSlots(mCount);
+            mKinds[slot] = kind;
+            mIds[slot] = id;
+            mCodes[slot] = code;
+            addKey(hashKey(kind, id, code), slot + 1);
+
+            if (kind != STRING && findKey(PARENT, id, 0) < 0)
+                addKey(hashKey(PARENT, id, 0), (slot + 1) | 0x80000000);
+        }
+
+        // Later tags with the same key replace the previous ones
+        mContents[slot] = addSymbol(content);
+        if (modified)
+            mModified[slot >>> 6] |= 1L << slot;
+        else
+            mModified[slot >>> 6] &= ~(1L << slot);
+    }
+
+    private void addKey(final int hash, final int entry) {
+        if (++mKeyCount * 2 > mKeyTable.length)
+            rehashKeys();
+
+        final int mask = mKeyTable.length - 1;
+        int i = hash & mask;
+        while (mKeyTable[i] != 0)
+            i = (i + 1) & mask;
+        mKeyTable[i] = entry;
+    }
+
+    private void rehashKeys() {
+        final int[] old = mKeyTable;
+        mKeyTable = new int[old.length * 2];
+        final int mask = mKeyTable.length - 1;
+        for (int entry : old) {
+            if (entry == 0)
+                continue;
+
+            final int slot = (entry & 0x7fffffff) - 1;
+            final byte kind = entry < 0 ? PARENT : mKinds[slot];
+            final int code = entry < 0 ? 0 : mCodes[slot];
+            int i = hashKey(kind, mIds[slot], code) & mask;
+            while (mKeyTable[i] != 0)
+                i = (i + 1) & mask;
+            mKeyTable[i] = entry;
+        }
+    }
+
+    private void ensureSlots(final int count) {
+        if (count > mKinds.length) {
+            final int length = mKinds.length * 2;
+            mKinds = copyOf(mKinds, length);
+            mIds = copyOf(mIds, length);
+            mCodes = copyOf(mCodes, length);
+            mContents = copyOf(mContents, length);
+        }
+        if ((count + 63) >>> 6 > mModified.length) {
+            final long[] modified = new long[mModified.length * 2];
+            System.arraycopy(mModified, 0, modified, 0, mModified.length);
+            mModified = modified;
+        }
+    }
+
+    private int addSymbol(String string) {
+        final int existing = findSymbol(string, 0, string.length());
+        if (existing >= 0)
+            return existing;
+
+        if (mSharedSymbols != null)
+            string = mSharedSymbols.intern(string);
+
+        if (mSymbolCount == mSymbols.length) {
+            final String[] symbols = new String[mSymbols.length * 2];
+            System.arraycopy(mSymbols, 0, symbols, 0, mSymbolCount);
+            mSymbols = symbols;
+        }
+        final int symbol = mSymbolCount++;
+        mSymbols[symbol] = string;
+
+        if (mSymbolCount * 2 > mSymbolTable.length) {
+            mSymbolTable = new int[mSymbolTable.length * 2];
+            for (int s = 0; s < mSymbolCount; ++s)
+                insertSymbol(s);
+        } else {
+            insertSymbol(symbol);
+        }
+        return symbol;
+    }
+
+    private void insertSymbol(final int symbol) {
+        final int mask = mSymbolTable.length - 1;
+        int i = spread(mSymbols[symbol].hashCode()) & mask;
+        while (mSymbolTable[i] != 0)
+            i = (i + 1) & mask;
+        mSymbolTable[i] = symbol + 1;
+    }
+
+    private static byte[] copyOf(final byte[] array, final int length) {
+        final byte[] result = new byte[length];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static int[] copyOf(final int[] array, final int length) {
+        final int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    //endregion
+}
@@ -8,25 +8,31 @@ public class ResourceStringComparator {
     public static final int SORT_ALPHABETICALLY = 0;
     public static final int SORT_STRING_LENGTH = 1;
 
+    // The same instances are always returned, so that Resources can keep the sorted order
+    private static final Comparator<ResTag> ALPHABETICAL_COMPARATOR = new Comparator<ResTag>() {
+        @Override
+        public int compare(ResTag o1, ResTag o2) {
+            return o1.compareTo(o2);
+        }
+    };
+
+    private static final Comparator<ResTag> STRING_LENGTH_COMPARATOR = new Comparator<ResTag>() {
+        @Override
+        public int compare(ResTag o1, ResTag o2) {
+            int x = o1.getContentLength();
+            int y = o2.getContentLength();
+            // Strings with the same length are sorted alphabetically, so the order is stable
+            return (x < y) ? -1 : ((x == y) ? o1.compareTo(o2) : 1);
+        }
+    };
+
     public static Comparator<ResTag> getStringsComparator(int sortMethod) {
         switch (sortMethod) {
             default:
             case SORT_ALPHABETICALLY:
-                return new Comparator<ResTag>() {
-                    @Override
-                    public int compare(ResTag o1, ResTag o2) {
-                        return o1.compareTo(o2);
-                    }
-                };
+                return ALPHABETICAL_COMPARATOR;
             case SORT_STRING_LENGTH:
-                return new Comparator<ResTag>() {
-                    @Override
-                    public int compare(ResTag o1, ResTag o2) {
-                        int x = o1.getContentLength();
-                        int y = o2.getContentLength();
-                        return (x < y) ? -1 : ((x == y) ? 0 : 1);
-                    }
-                };
+                return STRING_LENGTH_COMPARATOR;
         }
     }
 }
@@ -1,39 +1,86 @@
 package io.github.lonamiwebs.stringlate.classes.resources;
 
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
-import org.xmlpull.v1.XmlSerializer;
-
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResPlurals;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResString;
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResStringArray;
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResType;
 
 // Class to manage multiple ResTag,
 // usually parsed from strings.xml files
+//
+// Changes are made under the lock of the instance, but reading is not synchronized, so
+// other threads (exporting, calculating the progress, searching…) should read from an
+// immutable snapshot() instead, which always stays consistent while the changes go on.
 public class Resources implements Iterable<ResTag> {
 
     //region Members
 
+    public interface OnFileChanged {
+        // Called from the thread that saved or deleted the file, once it's done
+        void onFileChanged(File file);
+    }
+
     private final File mFile; // Keep track of the original file to be able to save()
-    private final HashMap<String, ResTag> mStrings;
-    private final HashMap<String, ResTag> mReferenceStrings; // Those starting with "@string/"
+    private final SymbolTable mSymbols; // Used to share the loaded strings, may be null
+    private HashMap<String, ResTag> mStrings;
+    private HashMap<String, ResTag> mReferenceStrings; // Those starting with "@string/"
+
+    // Secondary indices over mStrings, which must be updated along with it (see putTag)
+    private HashMap<String, HashMap<String, ResTag>> mChildren; // Parent ID -> its items
+    private EnumMap<ResType, HashMap<String, ResTag>> mTypes;
+    private HashMap<String, ResTag> mModifiedStrings;
+
+    // Snapshots share the indices above and the tags with the original resources. Once these
+    // change, the indices are copied, and so are the tags (or parents) before modifying them.
+    private final boolean mFrozen; // True for snapshots, which cannot be changed
+    private boolean mShared; // Whether the indices are shared with any snapshot
+    private Set<Object> mOwned; // Tags and parents no snapshot can see, null if all of them
+    private Resources mLastSnapshot; // Returned again while nothing changes
+
+    private final Object mSaveLock = new Object(); // Held while the file is being written
+
+    // Notified whenever the file of any resources is written or deleted
+    private static final CopyOnWriteArrayList<OnFileChanged> sFileListeners =
+            new CopyOnWriteArrayList<>();
+
+    // Fingerprint of the file, and its length and modification time when it was calculated.
+    // Guarded by mSaveLock
+    private String mFingerprint;
+    private long mFingerprintLength;
+    private long mFingerprintModified;
+
+    // Sorted views of the tags, one per comparator given to sortIterator, kept up to date as
+    // the tags change. Their arrays are replaced rather than modified, so that the iterators
+    // that were already handed out don't see the changes made while they're being used.
+    private final ArrayList<SortedView> mSortedViews;
+    private ResTag[] mUnsortedView; // Null if it needs to be built again
 
     private ResTag mLastTag; // The last tag returned by getTag()
 
+    // While a batch is being applied, only mStrings and mChildren (which the edits need to look
+    // up the parents) are kept up to date, and the rest of indices are built again at the end
+    private boolean mBatching;
+    private boolean mBatchChanged; // Whether any tag was put or removed during the batch
+
     private boolean mSavedChanges;
     private boolean mModified;
 
@@ -42,46 +89,157 @@ public class Resources implements Iterable<ResTag> {
     //region Constructors
 
     public static Resources fromFile(final File file) {
-        Resources result = new Resources(file);
+        Resources result = new Resources(file, null);
+        ResourcesCodec.get().loadInto(file, result);
 
-        if (file.isFile()) {
-            InputStream is = null;
-            try {
-                is = new FileInputStream(file);
-                // Load the resources from the XML into our resulting Resources
-                final XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
-                ResourcesParser.loadFromXml(is, result, parser);
-            } catch (IOException | XmlPullParserException e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    if (is != null)
-                        is.close();
-                } catch (IOException ignored) {
-                }
-            }
+        // If loading went okay, the resources will have been loaded into the result
+        return result;
+    }
+
+    // Loads the file using the snapshot previously saved on the given directory,
+    // as long as it's still up to date, which is much faster than parsing the file.
+    // Otherwise the file is parsed as usual and its snapshot saved for the next time.
+    //
+    // The IDs and content loaded are shared through the given symbol table, so
+    // that all the Resources from the same repository can reuse the same strings.
+    // Both the snapshot directory and the symbol table may be null.
+    public static Resources fromFile(final File file, final File snapshotDir,
+                                     final SymbolTable symbols) {
+        Resources result = new Resources(file, symbols);
+        if (snapshotDir == null)
+            ResourcesCodec.get().loadInto(file, result);
+        else
+            ResourcesCodec.get().loadInto(file, getSnapshotFile(file, snapshotDir), result);
+
+        return result;
+    }
+
+    // Mixes up all the given files into a single Resources, where the tags
+    // from later files replace those with the same ID from earlier files.
+    // The result is not bound to any file, so it cannot be saved either.
+    public static Resources fromFiles(final Iterable<File> files) {
+        return fromFiles(files, null, null);
+    }
+
+    public static Resources fromFiles(final Iterable<File> files, final File snapshotDir,
+                                      final SymbolTable symbols) {
+        final ArrayList<File> fileList = new ArrayList<>();
+        for (File file : files)
+            fileList.add(file);
+
+        ArrayList<File> snapshots = null;
+        if (snapshotDir != null) {
+            snapshots = new ArrayList<>(fileList.size());
+            for (File file : fileList)
+                snapshots.add(getSnapshotFile(file, snapshotDir));
         }
 
-        // If loading went okay, the resources will have been loaded into the result
+        // The files may be parsed in parallel, but they're still loaded in order
+        Resources result = new Resources(null, symbols);
+        ResourcesCodec.get().loadAllInto(fileList, snapshots, result);
         return result;
     }
 
+    // Loads the file keeping only the IDs of its tags in memory, whose content
+    // will be read from the snapshot of the file on demand. If it's not possible
+    // to use the snapshot, the file is loaded as usual.
+    public static Resources fromFileLazily(final File file, final File snapshotDir,
+                                           final SymbolTable symbols) {
+        Resources result = new Resources(file, symbols);
+        ResourcesCodec.get().loadLazily(file, getSnapshotFile(file, snapshotDir), result);
+        return result;
+    }
+
+    public static Resources fromFilesLazily(final Iterable<File> files, final File snapshotDir,
+                                            final SymbolTable symbols) {
+        Resources result = new Resources(null, symbols);
+        final ResourcesCodec codec = ResourcesCodec.get();
+        for (File file : files)
+            codec.loadLazily(file, getSnapshotFile(file, snapshotDir), result);
+
+        return result;
+    }
+
+    static File getSnapshotFile(final File file, final File snapshotDir) {
+        return new File(snapshotDir, file.getName() + ResourcesSnapshot.EXTENSION);
+    }
+
     // Empty resources cannot be saved
     public static Resources empty() {
-        return new Resources(null);
+        return new Resources(null, null);
     }
 
-    private Resources(File file) {
+    private Resources(File file, SymbolTable symbols) {
         mFile = file;
+        mSymbols = symbols;
         mStrings = new HashMap<>();
         mReferenceStrings = new HashMap<>();
+        mChildren = new HashMap<>();
+        mTypes = new EnumMap<>(ResType.class);
+        mModifiedStrings = new HashMap<>();
+        mSortedViews = new ArrayList<>();
         mSavedChanges = mFile != null && mFile.isFile();
+        mFrozen = false;
+    }
+
+    // Creates a snapshot of the given resources, or a copy which can be changed,
+    // sharing everything with them
+    private Resources(Resources original, boolean frozen) {
+        mFile = original.mFile;
+        mSymbols = original.mSymbols;
+        mStrings = original.mStrings;
+        mReferenceStrings = original.mReferenceStrings;
+        mChildren = original.mChildren;
+        mTypes = original.mTypes;
+        mModifiedStrings = original.mModifiedStrings;
+
+        // The arrays of the views are never modified, only replaced, so they can be shared
+        mSortedViews = new ArrayList<>(original.mSortedViews.size());
+        for (SortedView view : original.mSortedViews)
+            mSortedViews.add(new SortedView(view.comparator, view.tags));
+        mUnsortedView = original.mUnsortedView;
+
+        mSavedChanges = original.mSavedChanges;
+        mModified = original.mModified;
+        mFrozen = frozen;
+        if (!frozen) {
+            mShared = true;
+            mOwned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        }
+    }
+
+    // Returns an immutable version of these resources as they are now, which can be read from
+    // any thread. Nothing is copied at this point, only once these resources change later on.
+    public synchronized Resources snapshot() {
+        if (mFrozen)
+            return this;
+
+        if (mLastSnapshot == null) {
+            mLastSnapshot = new Resources(this, true);
+            mShared = true;
+            mOwned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        }
+        return mLastSnapshot;
+    }
+
+    public boolean isSnapshot() {
+        return mFrozen;
+    }
+
+    // Returns resources bound to the same file which can be changed and saved independently
+    // of these ones. As with snapshot(), nothing is copied until either of them changes.
+    public Resources mutableCopy() {
+        return new Resources(snapshot(), false);
     }
 
     //endregion
 
     //region Getting content
 
+    SymbolTable getSymbols() {
+        return mSymbols;
+    }
+
     public int count() {
         return mStrings.size();
     }
@@ -100,28 +258,35 @@ public class Resources implements Iterable<ResTag> {
     }
 
     public ResTag getTag(String resourceId) {
-        if (mLastTag != null && mLastTag.getId().equals(resourceId)) {
-            return mLastTag;
-        }
-
-        mLastTag = mStrings.get(resourceId);
-        if (mLastTag == null && !resourceId.contains(":")) {
-            // We might be looking for a parent string, not the ResTag itself
-            // This is a fallback to the slightly slower method
-            for (Map.Entry<String, ResTag> srt : mStrings.entrySet()) {
-                ResTag rt = srt.getValue();
-
-                if (rt instanceof ResStringArray.Item) {
-                    if (((ResStringArray.Item) rt).getParent().getId().equals(resourceId))
-                        return mLastTag = rt;
-                } else if (rt instanceof ResPlurals.Item) {
-                    if (((ResPlurals.Item) rt).getParent().getId().equals(resourceId))
-                        return mLastTag = rt;
-                }
-            }
+        // Snapshots may be read from several threads, so only read mLastTag once
+        final ResTag last = mLastTag;
+        if (last != null && last.getId().equals(resourceId)) {
+            return last;
+        }
+
+        ResTag tag = mStrings.get(resourceId);
+        if (tag == null && !resourceId.contains(":")) {
+            // We might be looking for a parent string, not the ResTag itself,
+            // in which case any of its children will do
+            HashMap<String, ResTag> children = mChildren.get(resourceId);
+            if (children != null && !children.isEmpty())
+                tag = children.values().iterator().next();
         }
 
-        return mLastTag;
+        mLastTag = tag;
+        return tag;
+    }
+
+    // Returns the tags of the given type (ResType.STRING, STRING_ARRAY or PLURALS)
+    public Collection<ResTag> getTags(final ResType type) {
+        HashMap<String, ResTag> tags = mTypes.get(type);
+        return tags == null ?
+                Collections.<ResTag>emptyList() : Collections.unmodifiableCollection(tags.values());
+    }
+
+    // Returns the tags which were modified, either when they were loaded or later on
+    public Collection<ResTag> getModifiedTags() {
+        return Collections.unmodifiableCollection(mModifiedStrings.values());
     }
 
     // Determines whether the resource ID was modified or not
@@ -135,7 +300,7 @@ public class Resources implements Iterable<ResTag> {
 
     //region Updating (setting) content
 
-    public void setContent(final ResTag original, final String content) {
+    public synchronized void setContent(final ResTag original, final String content) {
         if (content == null)
             throw new IllegalArgumentException();
         String resourceId = original == null ? "" : original.getId();
@@ -150,10 +315,24 @@ public class Resources implements Iterable<ResTag> {
 
         ResTag rs = getTag(resourceId);
         if (rs != null) {
-            if (rs.setContent(content)) {
+            if (!rs.getContent().equals(content.trim())) {
+                beforeChange();
+                rs = ownTag(rs);
+
+                // The content may determine its position on the views
+                removeFromViews(rs);
+                rs.setContent(content);
+                addToViews(rs);
+
+                if (mBatching)
+                    mBatchChanged = true;
+                else
+                    mModifiedStrings.put(resourceId, rs);
                 mSavedChanges = false;
             }
         } else {
+            beforeChange();
+
             // We need to treat string arrays and plurals specially
             // For these, we need to find the parent, and if it exists
             // then we need to add the child to the existing parent
@@ -166,9 +345,9 @@ public class Resources implements Iterable<ResTag> {
                 if (existingChild != null) {
                     // The parent existed, so add the new string to it, and the
                     // resulting new string to our local array of children
-                    ResStringArray parent = existingChild.getParent();
+                    ResStringArray parent = ownParent(existingChild.getParent());
                     ResTag newItem = parent.addItem(content, true, ori.getIndex());
-                    mStrings.put(newItem.getId(), newItem);
+                    putTag(newItem);
                     handled = true;
                 } // else the parent didn't exist, so behave as the general case
 
@@ -180,48 +359,382 @@ public class Resources implements Iterable<ResTag> {
                 if (existingChild != null) {
                     // The parent existed, so add the new string to it, and the
                     // resulting new string to our local array of children
-                    ResPlurals parent = existingChild.getParent();
+                    ResPlurals parent = ownParent(existingChild.getParent());
                     ResTag newItem = parent.addItem(ori.getQuantity(), content, true);
-                    mStrings.put(newItem.getId(), newItem);
+                    putTag(newItem);
                     handled = true;
                 } // else the parent didn't exist, so behave as the general case
             }
             if (!handled) {
-                ResTag clone = original.clone(content);
-                mStrings.put(clone.getId(), clone);
+                // Cloned items have a parent of their own, which no snapshot can see
+                ResTag newTag = original.clone(content);
+                if (mOwned != null && newTag instanceof ResStringArray.Item)
+                    mOwned.add(((ResStringArray.Item) newTag).getParent());
+                else if (mOwned != null && newTag instanceof ResPlurals.Item)
+                    mOwned.add(((ResPlurals.Item) newTag).getParent());
+
+                putTag(newTag);
             }
             mSavedChanges = false;
         }
     }
 
-    public void addTag(ResTag rt) {
+    public synchronized void addTag(ResTag rt) {
+        beforeChange();
+
         // If it's null, there was no old value, so changes won't not saved
-        if (mStrings.put(rt.getId(), rt) == null)
+        if (putTag(rt) == null)
             mSavedChanges = false;
     }
 
     // To be used by the ResourcesParser
     void loadTag(ResTag rt) {
-        if (rt.getContent().startsWith("@"))
+        loadTag(rt, rt.getContent().startsWith("@"));
+    }
+
+    // Used when the content is loaded lazily, to avoid reading it only to tell this
+    void loadTag(ResTag rt, boolean reference) {
+        beforeChange();
+        if (reference)
             mReferenceStrings.put(rt.getId(), rt);
         else
-            mStrings.put(rt.getId(), rt);
+            putTag(rt);
 
         mModified |= rt.wasModified();
     }
 
+    // Puts the tag into mStrings and updates all the indices. Returns the old tag, if any
+    private ResTag putTag(final ResTag rt) {
+        final String id = rt.getId();
+        final ResTag old = mStrings.put(id, rt);
+        if (old != null)
+            unindexTag(id, old);
+
+        final String parentId = getParentId(rt);
+        if (parentId != null) {
+            HashMap<String, ResTag> children = mChildren.get(parentId);
+            if (children == null) {
+                children = new HashMap<>();
+                mChildren.put(parentId, children);
+            }
+            children.put(id, rt);
+        }
+
+        if (mOwned != null && rt instanceof ResString)
+            mOwned.add(rt);
+
+        if (mBatching) {
+            mBatchChanged = true;
+            return old;
+        }
+
+        final ResType type = getType(rt);
+        HashMap<String, ResTag> tags = mTypes.get(type);
+        if (tags == null) {
+            tags = new HashMap<>();
+            mTypes.put(type, tags);
+        }
+        tags.put(id, rt);
+
+        if (rt.wasModified())
+            mModifiedStrings.put(id, rt);
+
+        addToViews(rt);
+        return old;
+    }
+
+    private void unindexTag(final String id, final ResTag rt) {
+        final String parentId = getParentId(rt);
+        if (parentId != null) {
+            HashMap<String, ResTag> children = mChildren.get(parentId);
+            if (children != null) {
+                children.remove(id);
+                if (children.isEmpty())
+                    mChildren.remove(parentId);
+            }
+        }
+
+        if (mBatching) {
+            mBatchChanged = true;
+            return;
+        }
+
+        HashMap<String, ResTag> tags = mTypes.get(getType(rt));
+        if (tags != null)
+            tags.remove(id);
+
+        mModifiedStrings.remove(id);
+        removeFromViews(rt);
+    }
+
+    private static String getParentId(final ResTag rt) {
+        if (rt instanceof ResStringArray.Item)
+            return ((ResStringArray.Item) rt).getParent().getId();
+        else if (rt instanceof ResPlurals.Item)
+            return ((ResPlurals.Item) rt).getParent().getId();
+        else
+            return null;
+    }
+
+    private static ResType getType(final ResTag rt) {
+        if (rt instanceof ResStringArray.Item)
+            return ResType.STRING_ARRAY;
+        else if (rt instanceof ResPlurals.Item)
+            return ResType.PLURALS;
+        else
+            return ResType.STRING;
+    }
+
+    //endregion
+
+    //region Copy on write
+
+    // Must be called before changing anything, so that no snapshot can see the changes
+    private void beforeChange() {
+        if (mFrozen)
+            throw new UnsupportedOperationException("Snapshots cannot be modified");
+
+        mLastSnapshot = null;
+        if (!mShared)
+            return;
+
+        // The tags themselves are not copied, only the indices which refer to them
+        mStrings = new HashMap<>(mStrings);
+        mReferenceStrings = new HashMap<>(mReferenceStrings);
+        mModifiedStrings = new HashMap<>(mModifiedStrings);
+
+        final HashMap<String, HashMap<String, ResTag>> children = new HashMap<>(mChildren.size());
+        for (Map.Entry<String, HashMap<String, ResTag>> entry : mChildren.entrySet())
+            children.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        mChildren = children;
+
+        final EnumMap<ResType, HashMap<String, ResTag>> types = new EnumMap<>(ResType.class);
+        for (Map.Entry<ResType, HashMap<String, ResTag>> entry : mTypes.entrySet())
+            types.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        mTypes = types;
+
+        mShared = false;
+    }
+
+    // Returns the tag itself if no snapshot can see it. Otherwise, it's copied and the copy
+    // replaces it, so that it can be modified. Items are copied along with their parent.
+    private ResTag ownTag(final ResTag rt) {
+        if (rt instanceof ResStringArray.Item) {
+            final ResStringArray.Item item = (ResStringArray.Item) rt;
+            return ownParent(item.getParent()).getItem(item.getIndex());
+        } else if (rt instanceof ResPlurals.Item) {
+            final ResPlurals.Item item = (ResPlurals.Item) rt;
+            return ownParent(item.getParent()).getItem(item.getQuantity());
+        } else if (mOwned == null || mOwned.contains(rt)) {
+            return rt;
+        } else {
+            final ResTag copy = ((ResString) rt).copy();
+            putTag(copy);
+            mLastTag = null;
+            return copy;
+        }
+    }
+
+    private ResStringArray ownParent(final ResStringArray parent) {
+        if (mOwned == null || mOwned.contains(parent))
+            return parent;
+
+        final ResStringArray copy = parent.copy();
+        mOwned.add(copy);
+        for (ResStringArray.Item item : copy.expand())
+            if (mStrings.get(item.getId()) == parent.getItem(item.getIndex()))
+                putTag(item);
+
+        mLastTag = null;
+        return copy;
+    }
+
+    private ResPlurals ownParent(final ResPlurals parent) {
+        if (mOwned == null || mOwned.contains(parent))
+            return parent;
+
+        final ResPlurals copy = parent.copy();
+        mOwned.add(copy);
+        for (ResPlurals.Item item : copy.expand())
+            if (mStrings.get(item.getId()) == parent.getItem(item.getQuantity()))
+                putTag(item);
+
+        mLastTag = null;
+        return copy;
+    }
+
     //endregion
 
     //region Deleting content
 
-    public void deleteId(String resourceId) {
-        mStrings.remove(resourceId);
+    public synchronized void deleteId(String resourceId) {
+        if (!mStrings.containsKey(resourceId))
+            return;
+
+        beforeChange();
+        ResTag removed = mStrings.remove(resourceId);
+        unindexTag(resourceId, removed);
         if (mLastTag != null && mLastTag.getId().equals(resourceId))
             mLastTag = null;
     }
 
     //endregion
 
+    //region Batch editing
+
+    // A single change to be made through applyBatch()
+    public static final class Edit {
+        private static final int SET_CONTENT = 0;
+        private static final int ADD_TAG = 1;
+        private static final int DELETE_ID = 2;
+
+        private final int mKind;
+        private final ResTag mTag;
+        private final String mContentOrId;
+
+        private Edit(final int kind, final ResTag tag, final String contentOrId) {
+            mKind = kind;
+            mTag = tag;
+            mContentOrId = contentOrId;
+        }
+
+        // Same as Resources.setContent (empty content deletes the tag)
+        public static Edit setContent(final ResTag tag, final String content) {
+            if (content == null)
+                throw new IllegalArgumentException();
+            return new Edit(SET_CONTENT, tag, content);
+        }
+
+        // Same as Resources.addTag
+        public static Edit addTag(final ResTag tag) {
+            if (tag == null)
+                throw new IllegalArgumentException();
+            return new Edit(ADD_TAG, tag, null);
+        }
+
+        // Same as Resources.deleteId
+        public static Edit deleteId(final String resourceId) {
+            if (resourceId == null)
+                throw new IllegalArgumentException();
+            return new Edit(DELETE_ID, null, resourceId);
+        }
+
+        private String getId() {
+            return mKind == DELETE_ID ? mContentOrId : mTag == null ? "" : mTag.getId();
+        }
+    }
+
+    // What applyBatch() did, as the count of tags for each kind of change
+    public static final class ChangeSummary {
+        public final int added;
+        public final int updated;
+        public final int deleted;
+        public final int unchanged;
+        public final boolean saved; // Also true if there was nothing to save
+
+        ChangeSummary(final int added, final int updated, final int deleted,
+                      final int unchanged, final boolean saved) {
+            this.added = added;
+            this.updated = updated;
+            this.deleted = deleted;
+            this.unchanged = unchanged;
+            this.saved = saved;
+        }
+
+        public boolean hasChanges() {
+            return added + updated + deleted != 0;
+        }
+
+        @Override
+        public String toString() {
+            return "+" + added + " ~" + updated + " -" + deleted + " =" + unchanged +
+                    (saved ? "" : " (not saved)");
+        }
+    }
+
+    // Applies all the edits in order, as if they were made one by one, and then saves the
+    // result only once (see save()), unless nothing changed. Only the first edit may need to
+    // copy what's shared with the snapshots, and the indices are built again once at the end.
+    public ChangeSummary applyBatch(final List<Edit> edits) {
+        int added = 0, updated = 0, deleted = 0, unchanged = 0;
+        final boolean savedChanges;
+        synchronized (this) {
+            mBatching = true;
+            mBatchChanged = false;
+            try {
+                for (Edit edit : edits) {
+                    final String id = edit.getId();
+                    final ResTag before = mStrings.get(id);
+                    final String oldContent = before == null ? null : before.getContent();
+                    final boolean oldModified = before != null && before.wasModified();
+
+                    switch (edit.mKind) {
+                        case Edit.SET_CONTENT:
+                            setContent(edit.mTag, edit.mContentOrId);
+                            break;
+                        case Edit.ADD_TAG:
+                            addTag(edit.mTag);
+                            break;
+                        case Edit.DELETE_ID:
+                            deleteId(id);
+                            break;
+                    }
+
+                    final ResTag after = mStrings.get(id);
+                    if (before == null && after == null)
+                        unchanged++;
+                    else if (before == null)
+                        added++;
+                    else if (after == null)
+                        deleted++;
+                    else if (oldContent.equals(after.getContent()) &&
+                            oldModified == after.wasModified())
+                        unchanged++;
+                    else
+                        updated++;
+                }
+            } finally {
+                mBatching = false;
+                if (mBatchChanged)
+                    rebuildIndices();
+            }
+            savedChanges = mSavedChanges;
+        }
+
+        if (added + updated + deleted == 0)
+            return new ChangeSummary(added, updated, deleted, unchanged, savedChanges);
+
+        // Saving takes its own lock before this one, so it must be done outside
+        return new ChangeSummary(added, updated, deleted, unchanged, save());
+    }
+
+    // Builds the indices that aren't kept up to date while applying a batch again from
+    // mStrings, and discards the views of the tags, which are sorted again when needed
+    private void rebuildIndices() {
+        final EnumMap<ResType, HashMap<String, ResTag>> types = new EnumMap<>(ResType.class);
+        final HashMap<String, ResTag> modified = new HashMap<>();
+        for (Map.Entry<String, ResTag> entry : mStrings.entrySet()) {
+            final ResTag rt = entry.getValue();
+            final ResType type = getType(rt);
+            HashMap<String, ResTag> tags = types.get(type);
+            if (tags == null) {
+                tags = new HashMap<>();
+                types.put(type, tags);
+            }
+            tags.put(entry.getKey(), rt);
+
+            if (rt.wasModified())
+                modified.put(entry.getKey(), rt);
+        }
+        mTypes = types;
+        mModifiedStrings = modified;
+
+        mSortedViews.clear();
+        mUnsortedView = null;
+    }
+
+    //endregion
+
     //region File saving and deleting
 
     public String getFilename() {
@@ -235,35 +748,107 @@ public class Resources implements Iterable<ResTag> {
 
     // If there are unsaved changes, saves the file
     // If the file was saved successfully or there were no changes to save, returns true
+    //
+    // What's written is a snapshot, so the lock is only held to take it, and the resources
+    // can keep changing while they're being saved (those changes will be saved next time).
+    //
+    // Changes don't always mean different content (e.g. syncing sets the same strings again),
+    // so the XML is only fingerprinted at first, and if the file already has the same
+    // fingerprint, it's left untouched, and so is its modification time. Otherwise, the XML
+    // is written again, this time to the file. The file is only hashed again if its length
+    // or modification time changed since it was last hashed.
     public boolean save() {
-        if (mSavedChanges)
-            return true;
+        synchronized (mSaveLock) {
+            final Resources snapshot;
+            synchronized (this) {
+                if (mSavedChanges)
+                    return true;
+
+                if (mFrozen)
+                    throw new UnsupportedOperationException("Snapshots cannot be saved");
+
+                if (mFile == null)
+                    return false;
+
+                snapshot = snapshot();
+            }
+
+            // Nothing is kept in memory at first, only the fingerprint of the XML
+            final ResourcesCodec.FingerprintedOutput xml = new ResourcesCodec.FingerprintedOutput(null);
+            if (!ResourcesCodec.get().write(snapshot, xml))
+                return false;
+
+            // A different length means different content, no need to hash the file for that
+            final String fingerprint = xml.getFingerprint();
+            final boolean unchanged = fingerprint != null && xml.size() == mFile.length() &&
+                    fingerprint.equals(updateFingerprint());
+            try {
+                if (!unchanged) {
+                    if (!mFile.getParentFile().isDirectory())
+                        mFile.getParentFile().mkdirs();
+
+                    // The snapshot can't change, so writing it again gives the same XML
+                    final FileOutputStream out = new FileOutputStream(mFile);
+                    try {
+                        if (!ResourcesCodec.get().write(snapshot, out))
+                            throw new IOException("Could not write the resources to " + mFile);
+                    } finally {
+                        out.close();
+                    }
+                    setFingerprint(fingerprint);
+                    notifyFileChanged(mFile);
+                }
+                synchronized (this) {
+                    mSavedChanges = mLastSnapshot == snapshot;
+                    mModified = true;
+                }
+            } catch (IOException e) {
+                setFingerprint(null);
+                e.printStackTrace();
+            }
+            // We do not want empty files, if it exists and it's empty delete it
+            if (mFile.isFile() && mFile.length() == 0) {
+                mFile.delete();
+                setFingerprint(null);
+            }
+
+            return mFile.isFile();
+        }
+    }
 
+    // Returns the fingerprint of the file as it's now on disk, or null if there's no file.
+    // It's only calculated again when the length or the modification time of the file
+    // change, so this is a cheap way to tell whether its content changed since last time
+    public String getFingerprint() {
         if (mFile == null)
-            return false;
+            return null;
 
-        try {
-            if (!mFile.getParentFile().isDirectory())
-                mFile.getParentFile().mkdirs();
+        synchronized (mSaveLock) {
+            return updateFingerprint();
+        }
+    }
 
-            FileOutputStream out = new FileOutputStream(mFile);
-            final XmlSerializer serializer = XmlPullParserFactory.newInstance().newSerializer();
-            mSavedChanges = ResourcesParser.parseToXml(this, out, serializer);
-            mModified = true;
-            out.close();
-        } catch (IOException | XmlPullParserException e) {
-            e.printStackTrace();
+    // Must be called with mSaveLock held
+    private String updateFingerprint() {
+        if (mFingerprint == null || mFile.length() != mFingerprintLength ||
+                mFile.lastModified() != mFingerprintModified) {
+            setFingerprint(ResourcesCodec.fingerprint(mFile));
         }
-        // We do not want empty files, if it exists and it's empty delete it
-        if (mFile.isFile() && mFile.length() == 0)
-            mFile.delete();
+        return mFingerprint;
+    }
 
-        return mFile.isFile();
+    // Must be called with mSaveLock held
+    private void setFingerprint(final String fingerprint) {
+        mFingerprint = fingerprint;
+        mFingerprintLength = mFile.length();
+        mFingerprintModified = mFile.lastModified();
     }
 
     public boolean delete() {
         boolean ok = mFile != null && mFile.delete();
         if (ok) {
+            notifyFileChanged(mFile);
+
             // If the directory is empty, delete it too
             File parent = mFile.getParentFile();
             String[] children = parent.list();
@@ -274,6 +859,19 @@ public class Resources implements Iterable<ResTag> {
         return ok;
     }
 
+    public static void addOnFileChangedListener(final OnFileChanged listener) {
+        sFileListeners.addIfAbsent(listener);
+    }
+
+    public static void removeOnFileChangedListener(final OnFileChanged listener) {
+        sFileListeners.remove(listener);
+    }
+
+    private static void notifyFileChanged(final File file) {
+        for (OnFileChanged listener : sFileListeners)
+            listener.onFileChanged(file);
+    }
+
     //endregion
 
     //region Iterator wrapper
@@ -283,23 +881,153 @@ public class Resources implements Iterable<ResTag> {
         return sortIterator(null, null);
     }
 
+    // Iterates over the tags sorted by the given comparator, if any, and only over those whose
+    // ID is in the given filter, if any. The tags are not copied, since the sorted order is
+    // kept in between calls, so comparators should be reused (see ResourceStringComparator).
     public Iterator<ResTag> sortIterator(final Comparator<ResTag> comparator, final Set<String> filterIDs) {
-        final ArrayList<ResTag> strings = new ArrayList<>(mStrings.size());
-        if (filterIDs == null || filterIDs.isEmpty()) {
-            for (Map.Entry<String, ResTag> srt : mStrings.entrySet()) {
-                strings.add(srt.getValue());
+        final ResTag[] tags = comparator == null ? getUnsortedView() : getSortedView(comparator);
+        return new TagIterator(tags, filterIDs == null || filterIDs.isEmpty() ? null : filterIDs);
+    }
+
+    //endregion
+
+    //region Sorted views
+
+    // Views with more changes than these are sorted again from scratch when needed
+    private static final int MAX_VIEW_CHANGES = 256;
+
+    // Views for more comparators than these are discarded, oldest first
+    private static final int MAX_SORTED_VIEWS = 4;
+
+    private static class SortedView {
+        final Comparator<ResTag> comparator;
+        ResTag[] tags;
+        int changes;
+
+        SortedView(final Comparator<ResTag> comparator, final ResTag[] tags) {
+            this.comparator = comparator;
+            this.tags = tags;
+        }
+
+        int indexOf(final ResTag rt) {
+            final int at = Arrays.binarySearch(tags, rt, comparator);
+            if (at < 0 || tags[at] == rt)
+                return at;
+
+            // Other tags may compare equal to this one, so look around for the right one
+            for (int i = at - 1; i >= 0 && comparator.compare(tags[i], rt) == 0; --i)
+                if (tags[i] == rt)
+                    return i;
+            for (int i = at + 1; i < tags.length && comparator.compare(tags[i], rt) == 0; ++i)
+                if (tags[i] == rt)
+                    return i;
+
+            return -1;
+        }
+    }
+
+    private synchronized ResTag[] getUnsortedView() {
+        if (mUnsortedView == null)
+            mUnsortedView = mStrings.values().toArray(new ResTag[mStrings.size()]);
+
+        return mUnsortedView;
+    }
+
+    private synchronized ResTag[] getSortedView(final Comparator<ResTag> comparator) {
+        for (SortedView view : mSortedViews)
+            if (view.comparator == comparator)
+                return view.tags;
+
+        final ResTag[] tags = mStrings.values().toArray(new ResTag[mStrings.size()]);
+        Arrays.sort(tags, comparator);
+
+        if (mSortedViews.size() == MAX_SORTED_VIEWS)
+            mSortedViews.remove(0);
+        mSortedViews.add(new SortedView(comparator, tags));
+        return tags;
+    }
+
+    private void addToViews(final ResTag rt) {
+        if (mBatching)
+            return;
+
+        mUnsortedView = null;
+        for (int i = mSortedViews.size() - 1; i >= 0; --i) {
+            final SortedView view = mSortedViews.get(i);
+            if (++view.changes > MAX_VIEW_CHANGES) {
+                mSortedViews.remove(i);
+                continue;
             }
-        } else {
-            for (Map.Entry<String, ResTag> srt : mStrings.entrySet()) {
-                if (filterIDs.contains(srt.getKey())) {
-                    strings.add(srt.getValue());
-                }
+
+            int at = Arrays.binarySearch(view.tags, rt, view.comparator);
+            if (at < 0)
+                at = -at - 1;
+
+            final ResTag[] tags = new ResTag[view.tags.length + 1];
+            System.arraycopy(view.tags, 0, tags, 0, at);
+            tags[at] = rt;
+            System.arraycopy(view.tags, at, tags, at + 1, view.tags.length - at);
+            view.tags = tags;
+        }
+    }
+
+    private void removeFromViews(final ResTag rt) {
+        if (mBatching)
+            return;
+
+        mUnsortedView = null;
+        for (int i = mSortedViews.size() - 1; i >= 0; --i) {
+            final SortedView view = mSortedViews.get(i);
+            final int at = view.indexOf(rt);
+            if (++view.changes > MAX_VIEW_CHANGES || at < 0) {
+                mSortedViews.remove(i);
+                continue;
             }
+
+            final ResTag[] tags = new ResTag[view.tags.length - 1];
+            System.arraycopy(view.tags, 0, tags, 0, at);
+            System.arraycopy(view.tags, at + 1, tags, at, tags.length - at);
+            view.tags = tags;
+        }
+    }
+
+    private static class TagIterator implements Iterator<ResTag> {
+        private final ResTag[] mTags;
+        private final Set<String> mFilterIDs;
+        private int mNext = -1;
+
+        TagIterator(final ResTag[] tags, final Set<String> filterIDs) {
+            mTags = tags;
+            mFilterIDs = filterIDs;
+            advance();
+        }
+
+        private void advance() {
+            do {
+                mNext++;
+            } while (mFilterIDs != null && mNext < mTags.length &&
+                    !mFilterIDs.contains(mTags[mNext].getId()));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext < mTags.length;
         }
-        if (comparator != null)
-            Collections.sort(strings, comparator);
 
-        return strings.iterator();
+        @Override
+        public ResTag next() {
+            if (mNext >= mTags.length)
+                throw new NoSuchElementException();
+
+            final ResTag result = mTags[mNext];
+            advance();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     //endregion
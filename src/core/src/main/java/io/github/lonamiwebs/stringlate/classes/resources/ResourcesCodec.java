@@ -0,0 +1,564 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResType;
+import io.github.lonamiwebs.stringlate.interfaces.ResourcesVisitor;
+
+// Class used to read and write strings.xml files reusing the same XmlPull instances.
+// Looking up the XmlPullParserFactory goes through service discovery, which is slow,
+// so it's only done once, and every thread keeps its own parser and serializer.
+//
+// Files are parsed with the hand-written Utf8ResourcesParser whenever it can handle
+// them, and otherwise they're handed back to the general XmlPull parser.
+public class ResourcesCodec {
+
+    //region Members
+
+    // Files bigger than this are streamed through XmlPull rather than read into memory
+    private static final int MAX_UTF8_PARSER_LENGTH = 4 * 1024 * 1024;
+
+    // Our read buffer is only kept between files if it's not bigger than this
+    private static final int MAX_RETAINED_BUFFER_LENGTH = 256 * 1024;
+
+    private static final ResourcesVisitor NO_VISITOR = new ResourcesVisitor() {
+        @Override
+        public void onString(String id, String content, boolean modified) {
+        }
+
+        @Override
+        public void onArrayItem(String arrayId, int index, String content, boolean modified) {
+        }
+
+        @Override
+        public void onPluralItem(String pluralsId, String quantity, String content, boolean modified) {
+        }
+
+        @Override
+        public void onEnd() {
+        }
+    };
+
+    private static XmlPullParserFactory sFactory;
+    private static ExecutorService sExecutor;
+    private static volatile boolean sUtf8ParserEnabled = true;
+
+    private static final ThreadLocal<ResourcesCodec> sCodecs = new ThreadLocal<ResourcesCodec>() {
+        @Override
+        protected ResourcesCodec initialValue() {
+            return new ResourcesCodec();
+        }
+    };
+
+    private XmlPullParser mParser;
+    private Utf8ResourcesParser mUtf8Parser;
+    private ResourcesWriter mWriter;
+    private byte[] mBuffer;
+
+    // A visitor may load other files while it's being used, so we need to
+    // know whether our instances are busy and use a new one in that case
+    private boolean mParserBusy;
+    private boolean mWriterBusy;
+
+    //endregion
+
+    //region Constructors
+
+    // Returns the codec for the calling thread. It must not be shared with other threads
+    public static ResourcesCodec get() {
+        return sCodecs.get();
+    }
+
+    private ResourcesCodec() {
+    }
+
+    // The factory is shared among all the threads, so it must be synchronized. The features
+    // are set only once here, since some parsers don't allow changing them after being used
+    private static synchronized XmlPullParser newParser() throws XmlPullParserException {
+        if (sFactory == null)
+            sFactory = XmlPullParserFactory.newInstance();
+
+        final XmlPullParser parser = sFactory.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        return parser;
+    }
+
+    //endregion
+
+    //region Loading
+
+    // Loads every file on its own Resources, in parallel if there are several of them
+    public ArrayList<Resources> loadAll(final List<File> files) {
+        return loadAll(files, null, null);
+    }
+
+    // Same as above, but using the snapshots of the files (see Resources.fromFile). The
+    // snapshot directories may be null, otherwise there must be one per file (or null)
+    public ArrayList<Resources> loadAll(final List<File> files, final List<File> snapshotDirs,
+                                        final SymbolTable symbols) {
+        return loadAllWith(files, snapshotDirs, new FileLoader<Resources>() {
+            @Override
+            public Resources load(File file, File snapshotDir) {
+                return Resources.fromFile(file, snapshotDir, symbols);
+            }
+        });
+    }
+
+    // Same as above, but loading read-only CompactResources instead
+    public ArrayList<CompactResources> loadAllCompact(final List<File> files, final List<File> snapshotDirs,
+                                                      final SymbolTable symbols) {
+        return loadAllWith(files, snapshotDirs, new FileLoader<CompactResources>() {
+            @Override
+            public CompactResources load(File file, File snapshotDir) {
+                return CompactResources.fromFile(file, snapshotDir, symbols);
+            }
+        });
+    }
+
+    // Loads the given file into an existing resources. Returns true if no error occurred
+    boolean loadInto(final File file, final Resources resources) {
+        return visit(file, ResourcesParser.newLoader(resources));
+    }
+
+    // Same as above, but tries to load the snapshot of the file first (see visit)
+    boolean loadInto(final File file, final File snapshot, final Resources resources) {
+        return visit(file, snapshot, ResourcesParser.newLoader(resources));
+    }
+
+    // Loads all the files into the same resources, so that the tags from later files replace
+    // those from earlier files. The snapshots may be null, otherwise there must be one per file.
+    // Several files are parsed in parallel, but they are loaded in the same order as given.
+    void loadAllInto(final List<File> files, final List<File> snapshots, final Resources resources) {
+        if (!shouldLoadInParallel(files.size())) {
+            for (int i = 0; i < files.size(); ++i)
+                loadInto(files.get(i), snapshots == null ? null : snapshots.get(i), resources);
+            return;
+        }
+
+        final ArrayList<Future<BufferedVisitor>> futures = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); ++i) {
+            final File file = files.get(i);
+            final File snapshot = snapshots == null ? null : snapshots.get(i);
+            futures.add(getExecutor().submit(new Callable<BufferedVisitor>() {
+                @Override
+                public BufferedVisitor call() {
+                    // Every thread has its own codec, so it's safe to use it from here
+                    final BufferedVisitor buffer = new BufferedVisitor();
+                    ResourcesCodec.get().visit(file, snapshot, buffer);
+                    return buffer;
+                }
+            }));
+        }
+
+        // Even if a file failed half-way, whatever was visited must be loaded like before
+        for (Future<BufferedVisitor> future : futures) {
+            final BufferedVisitor buffer = getResult(future);
+            if (buffer != null)
+                buffer.replay(ResourcesParser.newLoader(resources));
+        }
+    }
+
+    // Visits the snapshot of the file if it's up to date. Otherwise, the file
+    // is visited normally and a new snapshot is saved for it. Null snapshots
+    // are allowed, in which case the file is always visited
+    boolean visit(final File file, final File snapshot, final ResourcesVisitor visitor) {
+        if (snapshot == null)
+            return visit(file, visitor);
+
+        if (ResourcesSnapshot.visit(file, snapshot, visitor))
+            return true;
+
+        final ResourcesSnapshot.Recorder recorder = new ResourcesSnapshot.Recorder(file, visitor);
+        if (!visit(file, recorder))
+            return false;
+
+        recorder.save(snapshot);
+        return true;
+    }
+
+    // Loads the given file lazily through its snapshot, which will be created if it's
+    // missing or outdated. If the snapshot can't be used, the file is loaded normally
+    boolean loadLazily(final File file, final File snapshot, final Resources resources) {
+        if (ResourcesSnapshot.loadLazily(file, snapshot, resources))
+            return true;
+
+        final ResourcesSnapshot.Recorder recorder = new ResourcesSnapshot.Recorder(file, NO_VISITOR);
+        if (visit(file, recorder) && recorder.save(snapshot) &&
+                ResourcesSnapshot.loadLazily(file, snapshot, resources))
+            return true;
+
+        return loadInto(file, resources);
+    }
+
+    // Streams the tags of the given file to the visitor. Returns true if no error occurred
+    boolean visit(final File file, final ResourcesVisitor visitor) {
+        if (!file.isFile())
+            return false;
+
+        final boolean owner = !mParserBusy;
+        mParserBusy = true;
+        InputStream in = null;
+        try {
+            final long fileLength = file.length();
+            if (sUtf8ParserEnabled && fileLength <= MAX_UTF8_PARSER_LENGTH) {
+                final byte[] data = readFile(file, (int) fileLength, owner);
+                if (Utf8ResourcesParser.canParse(data, (int) fileLength)) {
+                    final Utf8ResourcesParser parser;
+                    if (owner) {
+                        if (mUtf8Parser == null)
+                            mUtf8Parser = new Utf8ResourcesParser();
+                        parser = mUtf8Parser;
+                    } else {
+                        parser = new Utf8ResourcesParser();
+                    }
+                    parser.setInput(data, (int) fileLength);
+                    ResourcesParser.visitParser(parser, visitor);
+                    return true;
+                }
+                // Something the fast parser doesn't handle, give the bytes to XmlPull
+                in = new ByteArrayInputStream(data, 0, (int) fileLength);
+            } else {
+                in = new FileInputStream(file);
+            }
+
+            final XmlPullParser parser;
+            if (owner) {
+                if (mParser == null)
+                    mParser = newParser();
+                parser = mParser;
+            } else {
+                parser = newParser();
+            }
+            ResourcesParser.visitXml(in, visitor, parser);
+            return true;
+        } catch (IOException | XmlPullParserException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (owner)
+                mParserBusy = false;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // Reads the whole file, reusing our buffer when possible
+    private byte[] readFile(final File file, final int length, final boolean owner) throws IOException {
+        final byte[] data;
+        if (owner && length <= MAX_RETAINED_BUFFER_LENGTH) {
+            if (mBuffer == null || mBuffer.length < length)
+                mBuffer = new byte[Math.max(length, 4096)];
+            data = mBuffer;
+        } else {
+            data = new byte[length];
+        }
+
+        final InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < length) {
+                final int count = in.read(data, read, length - read);
+                if (count < 0)
+                    throw new IOException("The file was truncated while reading it");
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    // Determines whether the hand-written UTF-8 parser should be used when possible
+    public static void setUtf8ParserEnabled(final boolean enabled) {
+        sUtf8ParserEnabled = enabled;
+    }
+
+    //region Parallel loading
+
+    private interface FileLoader<T> {
+        T load(File file, File snapshotDir);
+    }
+
+    private static boolean shouldLoadInParallel(final int fileCount) {
+        return fileCount > 1 && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    // Loads every file through the loader on the worker threads, and returns the results in
+    // the same order. If a worker fails, its file is loaded again from the calling thread
+    private static <T> ArrayList<T> loadAllWith(final List<File> files, final List<File> snapshotDirs,
+                                            final FileLoader<T> loader) {
+        final ArrayList<T> result = new ArrayList<>(files.size());
+        if (!shouldLoadInParallel(files.size())) {
+            for (int i = 0; i < files.size(); ++i)
+                result.add(loader.load(files.get(i), snapshotDirs == null ? null : snapshotDirs.get(i)));
+            return result;
+        }
+
+        final ArrayList<Future<T>> futures = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); ++i) {
+            final File file = files.get(i);
+            final File snapshotDir = snapshotDirs == null ? null : snapshotDirs.get(i);
+            futures.add(getExecutor().submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return loader.load(file, snapshotDir);
+                }
+            }));
+        }
+        for (int i = 0; i < files.size(); ++i) {
+            final T loaded = getResult(futures.get(i));
+            result.add(loaded == null ?
+                    loader.load(files.get(i), snapshotDirs == null ? null : snapshotDirs.get(i)) : loaded);
+        }
+        return result;
+    }
+
+    // The executor is shared by everyone, and its threads die after a while if they're unused
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            final int threads = Runtime.getRuntime().availableProcessors();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    threads, threads, 30L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "ResourcesCodec");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    private static <T> T getResult(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return null;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Visitor used to keep everything visited from a file, so it can be replayed later
+    private static class BufferedVisitor implements ResourcesVisitor {
+        private final ArrayList<Visited> mVisited = new ArrayList<>();
+        private boolean mEnded;
+
+        private static class Visited {
+            final ResType type;
+            final String id, quantity, content;
+            final int index;
+            final boolean modified;
+
+            Visited(ResType type, String id, int index, String quantity, String content, boolean modified) {
+                this.type = type;
+                this.id = id;
+                this.index = index;
+                this.quantity = quantity;
+                this.content = content;
+                this.modified = modified;
+            }
+        }
+
+        @Override
+        public void onString(String id, String content, boolean modified) {
+            mVisited.add(new Visited(ResType.STRING, id, -1, null, content, modified));
+        }
+
+        @Override
+        public void onArrayItem(String arrayId, int index, String content, boolean modified) {
+            mVisited.add(new Visited(ResType.STRING_ARRAY, arrayId, index, null, content, modified));
+        }
+
+        @Override
+        public void onPluralItem(String pluralsId, String quantity, String content, boolean modified) {
+            mVisited.add(new Visited(ResType.PLURALS, pluralsId, -1, quantity, content, modified));
+        }
+
+        @Override
+        public void onEnd() {
+            mEnded = true;
+        }
+
+        void replay(final ResourcesVisitor visitor) {
+            for (Visited v : mVisited) {
+                switch (v.type) {
+                    case STRING:
+                        visitor.onString(v.id, v.content, v.modified);
+                        break;
+                    case STRING_ARRAY:
+                        visitor.onArrayItem(v.id, v.index, v.content, v.modified);
+                        break;
+                    case PLURALS:
+                        visitor.onPluralItem(v.id, v.quantity, v.content, v.modified);
+                        break;
+                }
+            }
+            if (mEnded)
+                visitor.onEnd();
+        }
+    }
+
+    //endregion
+
+    //endregion
+
+    //region Saving
+
+    // Saves all the given resources. Returns true if all of them were saved
+    public boolean saveAll(final List<Resources> resources) {
+        boolean ok = true;
+        for (Resources r : resources)
+            ok &= r.save();
+
+        return ok;
+    }
+
+    // Writes the given resources as XML. Returns true if no error occurred
+    boolean write(final Resources resources, final OutputStream out) {
+        final boolean owner = !mWriterBusy;
+        mWriterBusy = true;
+        try {
+            final ResourcesWriter writer;
+            if (owner) {
+                if (mWriter == null)
+                    mWriter = new ResourcesWriter();
+                writer = mWriter;
+            } else {
+                writer = new ResourcesWriter();
+            }
+            return ResourcesParser.parseToXml(resources, out, writer);
+        } finally {
+            if (owner) {
+                mWriter.setOutput(null);
+                mWriterBusy = false;
+            }
+        }
+    }
+
+    //endregion
+
+    //region Fingerprints
+
+    // Output fingerprinted and counted as it's written, which is passed on to the given
+    // output, if any. Resources can be compared against the fingerprint of their file like
+    // this before deciding whether to write them there, without keeping their XML in memory
+    static final class FingerprintedOutput extends OutputStream {
+        private final OutputStream mOut; // May be null
+        private final MessageDigest mDigest = newDigest(); // May be null
+        private long mSize;
+
+        FingerprintedOutput(final OutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mOut != null)
+                mOut.write(b);
+            if (mDigest != null)
+                mDigest.update((byte) b);
+            ++mSize;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mOut != null)
+                mOut.write(b, off, len);
+            if (mDigest != null)
+                mDigest.update(b, off, len);
+            mSize += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mOut != null)
+                mOut.flush();
+        }
+
+        long size() {
+            return mSize;
+        }
+
+        // Returns the fingerprint of everything written, or null if it couldn't be calculated.
+        // Nothing else should be written after calling this
+        String getFingerprint() {
+            return mDigest == null ? null : toHex(mDigest.digest());
+        }
+    }
+
+    // Returns the fingerprint of the given file, which is the same as that of the
+    // resources saved to it, or null if the file doesn't exist or couldn't be read
+    static String fingerprint(final File file) {
+        final MessageDigest digest = newDigest();
+        if (digest == null || !file.isFile())
+            return null;
+
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    digest.update(buffer, 0, read);
+            } finally {
+                in.close();
+            }
+            return toHex(digest.digest());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    //endregion
+}
@@ -4,29 +4,20 @@ import net.gsantner.opoc.util.FileUtils;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResPlurals;
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResString;
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResStringArray;
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
 import io.github.lonamiwebs.stringlate.classes.resources.tags.ResType;
+import io.github.lonamiwebs.stringlate.interfaces.ResourcesVisitor;
 
 // Class used to parse strings.xml files into Resources objects
 // Please NOTE that strings with `translatable="false"` will NOT be parsed
@@ -40,13 +31,13 @@ public class ResourcesParser {
 
     private final static String RESOURCES = "resources";
 
-    private final static String ID = "name";
-    private final static String QUANTITY = "quantity";
+    final static String ID = "name";
+    final static String QUANTITY = "quantity";
     private final static String INDEX = "index";
     private final static String MODIFIED = "modified";
 
     // Not every application uses the official "translatable" name
-    private final static String[] TRANSLATABLE = {
+    final static String[] TRANSLATABLE = {
             "translatable", "translate", "translateable"
     };
 
@@ -62,14 +53,24 @@ public class ResourcesParser {
 
     //region Xml -> Resources
 
-    static void loadFromXml(final InputStream in, final Resources resources, final XmlPullParser parser)
+    // Returns a visitor which loads the visited tags into the given resources
+    static ResourcesVisitor newLoader(final Resources resources) {
+        return new ResourcesLoader(resources);
+    }
+
+    // Streams the tags found on the given file to the visitor, without
+    // building any Resources object. Returns true if no error occurred.
+    public static boolean visitFile(final File file, final ResourcesVisitor visitor) {
+        return ResourcesCodec.get().visit(file, visitor);
+    }
+
+    // The parser must already have its features set (see ResourcesCodec.newParser)
+    static void visitXml(final InputStream in, final ResourcesVisitor visitor, final XmlPullParser parser)
             throws XmlPullParserException, IOException {
 
         try {
-            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
             parser.setInput(in, null);
-            parser.nextTag();
-            readResourcesInto(parser, resources);
+            visitParser(parser, visitor);
         } finally {
             try {
                 in.close();
@@ -78,7 +79,15 @@ public class ResourcesParser {
         }
     }
 
-    private static void readResourcesInto(final XmlPullParser parser, final Resources resources)
+    // Visits the resources from a parser which already has its input set
+    static void visitParser(final XmlPullParser parser, final ResourcesVisitor visitor)
+            throws XmlPullParserException, IOException {
+        parser.nextTag();
+        readResourcesInto(parser, visitor);
+        visitor.onEnd();
+    }
+
+    private static void readResourcesInto(final XmlPullParser parser, final ResourcesVisitor visitor)
             throws XmlPullParserException, IOException {
 
         parser.require(XmlPullParser.START_TAG, ns, RESOURCES);
@@ -88,24 +97,20 @@ public class ResourcesParser {
             return;
         }
 
-        while (parser.next() != XmlPullParser.END_TAG) {
+        while (next(parser) != XmlPullParser.END_TAG) {
             if (parser.getEventType() != XmlPullParser.START_TAG)
                 continue;
 
             String name = parser.getName();
             switch (ResType.fromTagName(name)) {
                 case STRING:
-                    ResTag rt = readResourceString(parser);
-                    if (rt != null)
-                        resources.loadTag(rt);
+                    readResourceString(parser, visitor);
                     break;
                 case STRING_ARRAY:
-                    for (ResTag item : readResourceStringArray(parser))
-                        resources.loadTag(item);
+                    readResourceStringArray(parser, visitor);
                     break;
                 case PLURALS:
-                    for (ResTag item : readResourcePlurals(parser))
-                        resources.loadTag(item);
+                    readResourcePlurals(parser, visitor);
                     break;
                 default:
                     skip(parser);
@@ -116,7 +121,7 @@ public class ResourcesParser {
 
     // Reads a <string name="...">...</string> tag from the xml.
     // This assumes that the .xml has been cleaned (i.e. there are no untranslatable strings)
-    private static ResString readResourceString(XmlPullParser parser)
+    private static void readResourceString(XmlPullParser parser, ResourcesVisitor visitor)
             throws XmlPullParserException, IOException {
 
         String id, content;
@@ -124,7 +129,7 @@ public class ResourcesParser {
 
         parser.require(XmlPullParser.START_TAG, ns, ResType.STRING.toString());
         if (MISSING_TRANSLATION.equals(parser.getAttributeValue(null, TOOLS_IGNORE))) {
-            return null;
+            return;
         }
 
         id = parser.getAttributeValue(null, ID);
@@ -137,34 +142,31 @@ public class ResourcesParser {
 
         parser.require(XmlPullParser.END_TAG, ns, ResType.STRING.toString());
 
-        if (id == null || content.isEmpty())
-            return null;
-        else
-            return new ResString(ResType.STRING.markID(id), content, modified);
+        if (id != null && !content.isEmpty())
+            visitor.onString(ResType.STRING.markID(id), content, modified);
     }
 
     // Reads a <string-array name="...">...</string-array> tag from the xml.
-    private static Iterable<ResStringArray.Item> readResourceStringArray(XmlPullParser parser)
+    private static void readResourceStringArray(XmlPullParser parser, ResourcesVisitor visitor)
             throws XmlPullParserException, IOException {
 
-        ResStringArray result;
         String id;
 
         parser.require(XmlPullParser.START_TAG, ns, ResType.STRING_ARRAY.toString());
         if (MISSING_TRANSLATION.equals(parser.getAttributeValue(null, TOOLS_IGNORE))) {
-            return null;
+            return;
         }
 
         if (!readFirstBooleanAttr(parser, TRANSLATABLE, DEFAULT_TRANSLATABLE)) {
             // We don't care about not-translatable strings
             skipInnerXml(parser);
             parser.require(XmlPullParser.END_TAG, ns, ResType.STRING_ARRAY.toString());
-            return new ArrayList<>();
         } else {
-            id = parser.getAttributeValue(null, ID);
-            result = new ResStringArray(ResType.STRING_ARRAY.markID(id));
+            id = ResType.STRING_ARRAY.markID(parser.getAttributeValue(null, ID));
 
-            while (parser.next() != XmlPullParser.END_TAG) {
+            // Items without an explicit index take the count of items found so far
+            int count = 0;
+            while (next(parser) != XmlPullParser.END_TAG) {
                 if (parser.getEventType() != XmlPullParser.START_TAG)
                     continue;
 
@@ -175,39 +177,36 @@ public class ResourcesParser {
                     int index = readIntAttr(parser, INDEX, DEFAULT_INDEX);
 
                     String content = ResTag.desanitizeContent(getInnerXml(parser));
-                    if (!content.isEmpty())
-                        result.addItem(content, modified, index);
+                    if (!content.isEmpty()) {
+                        visitor.onArrayItem(id, index < 0 ? count : index, content, modified);
+                        count++;
+                    }
                 } else {
                     skip(parser);
                 }
             }
-
-            return result.expand();
         }
     }
 
-    // Reads a <string-array name="...">...</string-array> tag from the xml.
-    private static Iterable<ResPlurals.Item> readResourcePlurals(XmlPullParser parser)
+    // Reads a <plurals name="...">...</plurals> tag from the xml.
+    private static void readResourcePlurals(XmlPullParser parser, ResourcesVisitor visitor)
             throws XmlPullParserException, IOException {
 
-        ResPlurals result;
         String id;
 
         parser.require(XmlPullParser.START_TAG, ns, ResType.PLURALS.toString());
         if (MISSING_TRANSLATION.equals(parser.getAttributeValue(null, TOOLS_IGNORE))) {
-            return null;
+            return;
         }
 
         if (!readFirstBooleanAttr(parser, TRANSLATABLE, DEFAULT_TRANSLATABLE)) {
             // We don't care about not-translatable strings
             skipInnerXml(parser);
             parser.require(XmlPullParser.END_TAG, ns, ResType.PLURALS.toString());
-            return new ArrayList<>();
         } else {
-            id = parser.getAttributeValue(null, ID);
-            result = new ResPlurals(ResType.PLURALS.markID(id));
+            id = ResType.PLURALS.markID(parser.getAttributeValue(null, ID));
 
-            while (parser.next() != XmlPullParser.END_TAG) {
+            while (next(parser) != XmlPullParser.END_TAG) {
                 if (parser.getEventType() != XmlPullParser.START_TAG)
                     continue;
 
@@ -218,16 +217,23 @@ public class ResourcesParser {
                     boolean modified = readBooleanAttr(parser, MODIFIED, DEFAULT_MODIFIED);
                     String content = ResTag.desanitizeContent(getInnerXml(parser));
                     if (!content.isEmpty())
-                        result.addItem(quantity, content, modified);
+                        visitor.onPluralItem(id, quantity, content, modified);
                 } else {
                     skip(parser);
                 }
             }
-
-            return result.expand();
         }
     }
 
+    // Moves to the next event. Some parsers keep returning END_DOCUMENT on truncated
+    // files instead of failing, so we fail ourselves rather than looping forever.
+    private static int next(final XmlPullParser parser) throws XmlPullParserException, IOException {
+        final int type = parser.next();
+        if (type == XmlPullParser.END_DOCUMENT)
+            throw new XmlPullParserException("Unexpected end of document", parser, null);
+        return type;
+    }
+
     // Reads a boolean attribute from an xml tag
     private static boolean readBooleanAttr(XmlPullParser parser, String attr, boolean defaultV) {
         String value = parser.getAttributeValue(null, attr);
@@ -265,7 +271,7 @@ public class ResourcesParser {
         StringBuilder sb = new StringBuilder();
         int depth = 1;
         while (depth != 0) {
-            switch (parser.next()) {
+            switch (next(parser)) {
                 case XmlPullParser.END_TAG:
                     depth--;
                     if (depth > 0) {
@@ -302,7 +308,7 @@ public class ResourcesParser {
             throws XmlPullParserException, IOException {
         int depth = 1;
         while (depth != 0) {
-            switch (parser.next()) {
+            switch (next(parser)) {
                 case XmlPullParser.END_TAG:
                     depth--;
                     break;
@@ -320,7 +326,7 @@ public class ResourcesParser {
 
         int depth = 1;
         while (depth != 0) {
-            switch (parser.next()) {
+            switch (next(parser)) {
                 case XmlPullParser.END_TAG:
                     --depth;
                     break;
@@ -331,152 +337,176 @@ public class ResourcesParser {
         }
     }
 
+    // Visitor used to load the visited tags into an actual Resources object
+    private static class ResourcesLoader implements ResourcesVisitor {
+        private final Resources mResources;
+        private final SymbolTable mSymbols;
+
+        // Items from the same parent must share the same instance
+        private ResStringArray mLastArray;
+        private ResPlurals mLastPlurals;
+
+        ResourcesLoader(final Resources resources) {
+            mResources = resources;
+            mSymbols = resources.getSymbols();
+        }
+
+        // The tags trim their content, so that's done before to share the right string
+        private String intern(final String string) {
+            return SymbolTable.intern(mSymbols, string);
+        }
+
+        @Override
+        public void onString(String id, String content, boolean modified) {
+            mResources.loadTag(new ResString(intern(id), intern(content.trim()), modified));
+        }
+
+        @Override
+        public void onArrayItem(String arrayId, int index, String content, boolean modified) {
+            if (mLastArray == null || !mLastArray.getId().equals(arrayId))
+                mLastArray = new ResStringArray(intern(arrayId), mSymbols);
+
+            mResources.loadTag(mLastArray.addItem(intern(content.trim()), modified, index));
+        }
+
+        @Override
+        public void onPluralItem(String pluralsId, String quantity, String content, boolean modified) {
+            if (mLastPlurals == null || !mLastPlurals.getId().equals(pluralsId))
+                mLastPlurals = new ResPlurals(intern(pluralsId), mSymbols);
+
+            mResources.loadTag(mLastPlurals.addItem(intern(quantity), intern(content.trim()), modified));
+        }
+
+        @Override
+        public void onEnd() {
+            mLastArray = null;
+            mLastPlurals = null;
+        }
+    }
+
     //endregion
 
     //region Resources -> Xml
 
-    static boolean parseToXml(final Resources resources, final OutputStream out, final XmlSerializer serializer) {
+    static boolean parseToXml(final Resources resources, final OutputStream out, final ResourcesWriter writer) {
         // We need to keep track of the parents which we have done already.
         // This is because we previously expanded the children, but they're
         // wrapped under the same parent (which we cannot duplicate).
         HashSet<String> doneParents = new HashSet<>();
         try {
-            serializer.setOutput(out, "UTF-8");
-            serializer.startTag(ns, RESOURCES);
+            writer.setOutput(out);
+            writer.startTag(RESOURCES);
 
             for (ResTag rs : resources) {
                 if (!rs.hasContent())
                     continue;
 
                 if (rs instanceof ResString) {
-                    parseString(serializer, (ResString) rs);
+                    parseString(writer, (ResString) rs);
                 } else if (rs instanceof ResStringArray.Item) {
                     ResStringArray parent = ((ResStringArray.Item) rs).getParent();
                     if (!doneParents.contains(parent.getId())) {
                         doneParents.add(parent.getId());
-                        parseStringArray(serializer, parent);
+                        parseStringArray(writer, parent);
                     }
                 } else if (rs instanceof ResPlurals.Item) {
                     ResPlurals parent = ((ResPlurals.Item) rs).getParent();
                     if (!doneParents.contains(parent.getId())) {
                         doneParents.add(parent.getId());
-                        parsePlurals(serializer, parent);
+                        parsePlurals(writer, parent);
                     }
                 }
             }
-            serializer.endTag(ns, RESOURCES);
-            serializer.flush();
+            writer.endTag(RESOURCES);
+            writer.flush();
             return true;
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
+            // The latter if the content has characters that can't be written as XML
             e.printStackTrace();
             return false;
         }
     }
 
-    private static void parseString(XmlSerializer serializer, ResString string)
+    private static void parseString(ResourcesWriter writer, ResString string)
             throws IOException {
-        serializer.startTag(ns, ResType.STRING.toString());
-        serializer.attribute(ns, ID, ResType.resolveID(string.getId()));
+        writer.startTag(ResType.STRING.toString());
+        writer.attribute(ID, ResType.resolveID(string.getId()));
 
         // Only save changes that differ from the default, to save space
         if (string.wasModified() != DEFAULT_MODIFIED)
-            serializer.attribute(ns, MODIFIED, Boolean.toString(string.wasModified()));
+            writer.attribute(MODIFIED, Boolean.toString(string.wasModified()));
 
-        serializer.text(ResTag.sanitizeContent(string.getContent()));
-        serializer.endTag(ns, ResType.STRING.toString());
+        writer.text(ResTag.sanitizeContent(string.getContent()));
+        writer.endTag(ResType.STRING.toString());
     }
 
-    private static void parseStringArray(XmlSerializer serializer, ResStringArray array)
+    private static void parseStringArray(ResourcesWriter writer, ResStringArray array)
             throws IOException {
-        serializer.startTag(ns, ResType.STRING_ARRAY.toString());
-        serializer.attribute(ns, ID, ResType.resolveID(array.getId()));
+        writer.startTag(ResType.STRING_ARRAY.toString());
+        writer.attribute(ID, ResType.resolveID(array.getId()));
 
         for (ResStringArray.Item item : array.expand()) {
-            serializer.startTag(ns, ResType.ITEM.toString());
+            writer.startTag(ResType.ITEM.toString());
             if (item.wasModified() != DEFAULT_MODIFIED)
-                serializer.attribute(ns, MODIFIED, Boolean.toString(item.wasModified()));
+                writer.attribute(MODIFIED, Boolean.toString(item.wasModified()));
 
             // We MUST save the index because the user might have
             // translated first the non-first item from the array. Darn it!
-            serializer.attribute(ns, INDEX, Integer.toString(item.getIndex()));
-            serializer.text(ResTag.sanitizeContent(item.getContent()));
-            serializer.endTag(ns, ResType.ITEM.toString());
+            writer.attribute(INDEX, Integer.toString(item.getIndex()));
+            writer.text(ResTag.sanitizeContent(item.getContent()));
+            writer.endTag(ResType.ITEM.toString());
         }
 
-        serializer.endTag(ns, ResType.STRING_ARRAY.toString());
+        writer.endTag(ResType.STRING_ARRAY.toString());
     }
 
-    private static void parsePlurals(XmlSerializer serializer, ResPlurals plurals)
+    private static void parsePlurals(ResourcesWriter writer, ResPlurals plurals)
             throws IOException {
-        serializer.startTag(ns, ResType.PLURALS.toString());
-        serializer.attribute(ns, ID, ResType.resolveID(plurals.getId()));
+        writer.startTag(ResType.PLURALS.toString());
+        writer.attribute(ID, ResType.resolveID(plurals.getId()));
 
         for (ResPlurals.Item item : plurals.expand()) {
-            serializer.startTag(ns, ResType.ITEM.toString());
-            serializer.attribute(ns, QUANTITY, item.getQuantity());
+            writer.startTag(ResType.ITEM.toString());
+            writer.attribute(QUANTITY, item.getQuantity());
 
             if (item.wasModified() != DEFAULT_MODIFIED)
-                serializer.attribute(ns, MODIFIED, Boolean.toString(item.wasModified()));
+                writer.attribute(MODIFIED, Boolean.toString(item.wasModified()));
 
-            serializer.text(ResTag.sanitizeContent(item.getContent()));
-            serializer.endTag(ns, ResType.ITEM.toString());
+            writer.text(ResTag.sanitizeContent(item.getContent()));
+            writer.endTag(ResType.ITEM.toString());
         }
 
-        serializer.endTag(ns, ResType.PLURALS.toString());
+        writer.endTag(ResType.PLURALS.toString());
     }
 
     //endregion
 
     //region Xml -> Xml without untranslatable strings
 
-    private static final Pattern TAG_UNTRANSLATABLE_PATTERN =
-            //                 tagName    translatable    =     "false"
-            Pattern.compile("<([\\w-]+).*?translatable\\s*=\\s*\"false\".*?>");
-
     public static boolean cleanXml(final File inFile, final File outFile) {
         return cleanXml(FileUtils.readTextFile(inFile), outFile);
     }
 
     public static boolean cleanXml(final String xml, final File outFile) {
         try {
-            boolean haveAny = false;
-
             // 1. Find dirty tags (those which are untranslatable)
-            Queue<DirtyRange> dirtyRanges = new LinkedList<>();
-
-            Matcher mTag = RES_TAG_PATTERN.matcher(xml);
-            while (mTag.find()) {
-                String translatable = getAttr(mTag.group(2), TRANSLATABLE);
-                if (translatable.equals("false")) {
-                    // Decrease the range by 1 not to eat up the next character (due to the i++)
-                    dirtyRanges.add(new DirtyRange(mTag.start(), mTag.end() - 1));
-                } else {
-                    // This file contains at least one translatable string
-                    haveAny = true;
-                }
-            }
+            final TemplatePlan plan = TemplatePlan.fromXml(xml);
 
-            // TODO The rest of code is copied from cleanMissingStrings I only change one part…
             // There are no translatable strings, so do nothing (and don't create any file)
-            if (!haveAny)
+            if (!plan.hasTranslatable())
                 return false;
 
             // There is at least one translatable string, so we need to clean the xml
             if (!outFile.getParentFile().isDirectory())
                 outFile.getParentFile().mkdirs();
 
-            FileOutputStream out = new FileOutputStream(outFile);
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
-
-            // We might want to early terminate if all strings are translatable
-            if (dirtyRanges.isEmpty()) {
-                // Simply copy the file, there's nothing to clean
-                writer.write(xml);
-                writer.close();
-                return true;
+            // 2. Copy everything but the dirty tags
+            final FileOutputStream out = new FileOutputStream(outFile);
+            try {
+                plan.writeTranslatable(out);
+            } finally {
+                out.close();
             }
-
-            removeDirtyRanges(xml, dirtyRanges, out);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -488,269 +518,10 @@ public class ResourcesParser {
 
     //region Using another file as a template
 
-    //region Applying the template
-
-    // This will match either <string>, <string-array>, <plurals> or <item> from start to end.
-    // It will also match the attributes (attribute_a="value" attribute_b="value") and the content.
-    private static Pattern RES_TAG_PATTERN = Pattern.compile(
-            "<(string(?:-array)?|plurals|item)((?:\\s+\\w+\\s*=\\s*\"\\w+\")*)\\s*>([\\S\\s]*?)(?:</\\s*\\1\\s*>)");
-
-    // This should be matched against the .group(2) from the above pattern
-    private static Pattern ATTRIBUTE_PATTERN = Pattern.compile("(\\w+)\\s*=\\s*\"(\\w+)\"");
-
-    //region Actual code
-
-    private static class DirtyRange {
-        final int start, end;
-
-        DirtyRange(int s, int e) {
-            start = s;
-            end = e;
-        }
-    }
-
-    // Replacement holder - on the original xml (the "template")
-    // there will exist several of these to indicate where the
-    // replacements should be made
-    private static class ReplaceHolder {
-        final int start, end;
-        final String replacement;
-
-        ReplaceHolder(int start, int end, String replacement) {
-            this.start = start;
-            this.end = end;
-            this.replacement = replacement;
-        }
-    }
-
-    private static String getAttr(String attrs, String... attrNames) {
-        Matcher m = ATTRIBUTE_PATTERN.matcher(attrs);
-        while (m.find()) {
-            for (String attrName : attrNames) {
-                if (m.group(1).equals(attrName)) {
-                    return m.group(2);
-                }
-            }
-        }
-        return "";
-    }
-
-    private static boolean isWhitespace(String string) {
-        for (int i = 0; i < string.length(); i++)
-            if (!Character.isWhitespace(string.charAt(i)))
-                return false;
-        return true;
-    }
-
-    // Will return an empty string if there is no available translation
-    private static String cleanMissingStrings(String xml, Resources resources) {
-        // TODO Ignore "<!-- <string name="missing">value</string> -->" comments?
-        // Maybe scan for comments and if a match is found inside a comment… Discard it?
-        // Or maybe it's just over complication.
-        boolean haveAny = false;
-
-        // 1. Find dirty tags (those which we have no translation for)
-        Queue<DirtyRange> dirtyRanges = new LinkedList<>();
-
-        Matcher mTag = RES_TAG_PATTERN.matcher(xml);
-        while (mTag.find()) {
-            String id = getAttr(mTag.group(2), ID);
-            if (resources.contains(id)) {
-                // This file contains at least one translation
-                haveAny = true;
-            } else {
-                // We don't have a translation, so this tag is dirty. Decrease
-                // the range by 1 not to eat up the next character (due to the i++)
-                dirtyRanges.add(new DirtyRange(mTag.start(), mTag.end() - 1));
-            }
-        }
-
-        // There is no string we have a translation for, so return an empty string
-        if (!haveAny)
-            return "";
-
-        // We might want to early terminate if we have a translation for all the strings
-        if (dirtyRanges.isEmpty())
-            return xml;
-
-        try {
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
-
-            // 2. Remove the dirty tags and mark those lines as dirty too
-            removeDirtyRanges(xml, dirtyRanges, output);
-
-            // Return the clean xml
-            return output.toString();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "";
-        }
-    }
-
-    // This assumes a clean xml, i.e., we have a translation for all the strings in it
-    // Returns TRUE if there were no errors
-    private static boolean writeReplaceStrings(String xml, Resources resources, OutputStream out) {
-        // Match on the original xml to determine where replacements will be made
-        Matcher mTag = RES_TAG_PATTERN.matcher(xml);
-
-        // Matches will be in order, so use a queue (first in, first out)
-        Queue<ReplaceHolder> holders = new LinkedList<>();
-        while (mTag.find()) {
-            int contentStart = mTag.start(3);
-            int contentEnd = contentStart + mTag.group(3).length();
-
-            String id = getAttr(mTag.group(2), ID);
-            if (id.isEmpty())
-                continue;
-
-            // Should never fail - plus do we even care it's empty? No resource would be found
-            // Also, we obviously have this string translated (xml was cleaned, right?),
-            // thus there is no need to ensure whether we need to delete the line or not
-            ResType type = ResType.fromTagName(mTag.group(1));
-            ResTag tag = resources.getTag(type.markID(id));
-            Matcher mItem;
-            switch (type) {
-                case STRING:
-                    holders.add(new ReplaceHolder(contentStart, contentEnd,
-                            tag.getContent() == null ? "" : tag.getContent()));
-                    break;
-                case STRING_ARRAY:
-                    ResStringArray array = ((ResStringArray.Item) tag).getParent();
-                    int i = 0;
-                    mItem = RES_TAG_PATTERN.matcher(mTag.group(3));
-                    while (mItem.find()) {
-                        if (ResType.fromTagName(mItem.group(1)) == ResType.ITEM) {
-                            // We must take the base offset (contentStart) into account…
-                            int cs = contentStart + mItem.start(3);
-                            int ce = cs + mItem.group(3).length();
-
-                            // We might not have this content, but we wish to keep the order
-                            ResStringArray.Item item = array.getItem(i);
-                            String content = item == null ? null : item.getContent();
-                            holders.add(new ReplaceHolder(cs, ce,
-                                    content == null ? "" : content));
-                            i++;
-                        }
-                    }
-                    break;
-                case PLURALS:
-                    ResPlurals plurals = ((ResPlurals.Item) tag).getParent();
-                    mItem = RES_TAG_PATTERN.matcher(mTag.group(3));
-                    while (mItem.find()) {
-                        if (ResType.fromTagName(mItem.group(1)) == ResType.ITEM) {
-                            String quantity = getAttr(mItem.group(2), QUANTITY);
-                            int cs = contentStart + mItem.start(3);
-                            int ce = cs + mItem.group(3).length();
-
-                            // We might not have this content, but we wish to keep the order
-                            ResPlurals.Item item = plurals.getItem(quantity);
-                            String content = item == null ? "" : item.getContent();
-                            holders.add(new ReplaceHolder(cs, ce, content));
-                        }
-                    }
-                    break;
-                // case ResType.ITEM: break; // Should not be on the wild though
-            }
-        }
-
-        // Write the result by applying the required replacements
-        PrintWriter writer = new PrintWriter(out);
-        ReplaceHolder holder = holders.poll();
-        for (int i = 0; i < xml.length(); i++) {
-            if (holder == null || i < holder.start) {
-                // There are no more holders left, simply copy the characters
-                writer.append(xml.charAt(i));
-            } else {
-                // We reached the current replacement holder
-                // Replace the original content with our new content
-                writer.append(ResTag.sanitizeContent(holder.replacement));
-                i = holder.end - 1; // Skip to the end of the tag
-                // Decrease the range by 1 not to eat up the next character (due to the i++)
-
-                holder = holders.poll(); // Next holder
-            }
-        }
-        writer.close();
-        return !writer.checkError();
-    }
-
-    // Returns TRUE if the template was applied successfully
+    // Returns TRUE if the template was applied successfully. The template is analyzed every
+    // time, so use a TemplatePlan instead when applying the same one more than once
     public static boolean applyTemplate(File template, Resources resources, OutputStream out) {
-        // The xml will be empty if we have no translation for this file.
-        String xml = cleanMissingStrings(FileUtils.readTextFile(template), resources);
-        return !xml.isEmpty() && writeReplaceStrings(xml, resources, out);
-    }
-
-    //endregion
-
-    //endregion
-
-    //endregion
-
-    //region Private utilities
-
-    // Removes the dirty ranges on string. If a line containing
-    // a dirty range is then empty, this line will also be removed.
-    // The result will be output to the given output stream.
-    private static void removeDirtyRanges(final String string,
-                                          final Queue<DirtyRange> dirtyRanges,
-                                          final OutputStream output)
-            throws IOException {
-        int line = 0;
-        int lastLine = -1; // To avoid adding the same line twice
-        Queue<Integer> dirtyLines = new LinkedList<>();
-
-        // Save result here
-        StringBuilder noDirty = new StringBuilder();
-
-        // Get first range and iterate over the characters of the xml
-        DirtyRange range = dirtyRanges.poll();
-        for (int i = 0; i < string.length(); i++) {
-            char c = string.charAt(i);
-
-            if (range == null || i < range.start) {
-                // Copy this character since it's not part of the dirty tag
-                noDirty.append(c);
-
-                // Note how we increment the line iff it was copied,
-                // otherwise it was removed and should be excluded
-                if (c == '\n') {
-                    line++;
-                }
-            } else {
-                // Omit these characters since we're in a dirty tag,
-                // and mark the line as dirty iff it wasn't marked before
-                if (lastLine != line) {
-                    dirtyLines.add(line);
-                    lastLine = line;
-                }
-
-                // >= not to skip to the next character
-                if (i >= range.end) {
-                    // We're outside the range now, so pick up the next range
-                    range = dirtyRanges.poll();
-                }
-            }
-        }
-
-        // Clean the dirty lines iff they're whitespace only
-        String[] lines = noDirty.toString().split("\\n");
-        Integer dirtyLine = dirtyLines.poll();
-
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output));
-        for (int i = 0; i < lines.length; i++) {
-            // If there are no more dirty lines
-            // Or we are not at a dirty line yet
-            // Or this line is not all whitespace, append it
-            if (dirtyLine == null || i != dirtyLine || !isWhitespace(lines[i])) {
-                writer.write(lines[i]);
-                writer.write('\n');
-            } else {
-                // Get the next dirty line while ignoring this line too
-                dirtyLine = dirtyLines.poll();
-            }
-        }
-        writer.close();
+        return TemplatePlan.fromFile(template).apply(resources, out);
     }
 
     //endregion
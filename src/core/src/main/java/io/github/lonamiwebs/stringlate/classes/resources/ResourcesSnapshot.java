@@ -0,0 +1,480 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResPlurals;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResString;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResStringArray;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
+import io.github.lonamiwebs.stringlate.interfaces.ResourcesVisitor;
+
+// Class used to keep a compact binary copy of the tags parsed from a strings.xml file,
+// so that they can be loaded again without parsing the XML as long as it didn't change.
+//
+// The snapshot stores the same calls a ResourcesVisitor would receive while visiting
+// the file, so replaying them results in the exact same Resources. It is validated
+// against the length, last modification time and CRC32 of the XML file, and against
+// the CRC32 of its own contents, so a stale or half-written snapshot is never used.
+//
+// Snapshots can also be loaded lazily, in which case the content of the tags is
+// only decoded from the mapped file when they're asked for it.
+final class ResourcesSnapshot {
+
+    //region Constants
+
+    static final String EXTENSION = ".slbin";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x534C4253; // "SLBS"
+    private static final int VERSION = 2;
+
+    // magic, version, xml length, xml modification time, xml crc, count, body length, body crc
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 8;
+    private static final int COUNT_OFFSET = 4 + 4 + 8 + 8 + 8;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_ARRAY_ITEM = 1;
+    private static final byte TYPE_PLURAL_ITEM = 2;
+
+    //endregion
+
+    //region Constructors
+
+    private ResourcesSnapshot() {
+    }
+
+    //endregion
+
+    //region Loading
+
+    // Replays the snapshot to the visitor if it's still valid for the given XML file.
+    // Returns false if it couldn't be used, in which case the visitor wasn't called
+    static boolean visit(final File xml, final File snapshot, final ResourcesVisitor visitor) {
+        final ByteBuffer buffer = open(xml, snapshot);
+        if (buffer == null)
+            return false;
+
+        try {
+            return replay(buffer, buffer.getInt(COUNT_OFFSET), visitor);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Loads the tags on the snapshot into the resources, but instead of reading their
+    // content, the tags will read it from the snapshot when needed (see ResTag.ContentSource).
+    // Returns false if it couldn't be used, in which case nothing was loaded.
+    static boolean loadLazily(final File xml, final File snapshot, final Resources resources) {
+        final ByteBuffer buffer = open(xml, snapshot);
+        if (buffer == null)
+            return false;
+
+        try {
+            return replayLazily(buffer, buffer.getInt(COUNT_OFFSET), resources);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Maps the snapshot if it's still valid for the given XML file, and returns the buffer
+    // positioned right where its entries begin. Returns null if it couldn't be used
+    private static ByteBuffer open(final File xml, final File snapshot) {
+        if (!xml.isFile() || !snapshot.isFile())
+            return null;
+
+        try {
+            final ByteBuffer buffer = map(snapshot);
+            if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+
+            // Cheap checks first, so we only need to hash the XML if it looks the same
+            final long xmlLength = buffer.getLong();
+            final long xmlModified = buffer.getLong();
+            if (xmlLength != xml.length() || xmlModified != xml.lastModified())
+                return null;
+
+            final long xmlCrc = buffer.getLong();
+            final int count = buffer.getInt();
+            final int bodyLength = buffer.getInt();
+            final long bodyCrc = buffer.getLong();
+            if (count < 0 || bodyLength != buffer.remaining())
+                return null;
+
+            // If both hashes match, the entries were written by us and can be trusted
+            final byte[] scratch = new byte[Math.max(4096, Math.min(bodyLength, 64 * 1024))];
+            if (crc(buffer, scratch) != bodyCrc || crc(xml, scratch) != xmlCrc)
+                return null;
+
+            return buffer;
+        } catch (IOException | BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(final File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.load();
+            return buffer;
+        } finally {
+            // The mapping remains valid after the channel is closed
+            in.close();
+        }
+    }
+
+    private static boolean replay(final ByteBuffer buffer, final int count,
+                                  final ResourcesVisitor visitor) {
+        final byte[] scratch = new byte[4096];
+        for (int i = 0; i < count; ++i) {
+            final byte type = buffer.get();
+            final boolean modified = buffer.get() != 0;
+            switch (type) {
+                case TYPE_STRING: {
+                    final String id = readString(buffer, scratch);
+                    visitor.onString(id, readContent(buffer, scratch), modified);
+                    break;
+                }
+                case TYPE_ARRAY_ITEM: {
+                    final String id = readString(buffer, scratch);
+                    final int index = buffer.getInt();
+                    visitor.onArrayItem(id, index, readContent(buffer, scratch), modified);
+                    break;
+                }
+                case TYPE_PLURAL_ITEM: {
+                    final String id = readString(buffer, scratch);
+                    final String quantity = readString(buffer, scratch);
+                    visitor.onPluralItem(id, quantity, readContent(buffer, scratch), modified);
+                    break;
+                }
+                default:
+                    return false;
+            }
+        }
+        visitor.onEnd();
+        return true;
+    }
+
+    // Same as above, but building the tags ourselves and without reading their content
+    private static boolean replayLazily(final ByteBuffer buffer, final int count,
+                                        final Resources resources) {
+        final byte[] scratch = new byte[4096];
+        final LazyContent source = new LazyContent(buffer);
+        final SymbolTable symbols = resources.getSymbols();
+
+        // Items from the same parent must share the same instance
+        ResStringArray lastArray = null;
+        ResPlurals lastPlurals = null;
+
+        for (int i = 0; i < count; ++i) {
+            final byte type = buffer.get();
+            final boolean modified = buffer.get() != 0;
+            final ResTag tag;
+            switch (type) {
+                case TYPE_STRING: {
+                    tag = new ResString(SymbolTable.intern(symbols, readString(buffer, scratch)), "", modified);
+                    break;
+                }
+                case TYPE_ARRAY_ITEM: {
+                    final String id = readString(buffer, scratch);
+                    if (lastArray == null || !lastArray.getId().equals(id))
+                        lastArray = new ResStringArray(SymbolTable.intern(symbols, id), symbols);
+
+                    tag = lastArray.addItem("", modified, buffer.getInt());
+                    break;
+                }
+                case TYPE_PLURAL_ITEM: {
+                    final String id = readString(buffer, scratch);
+                    if (lastPlurals == null || !lastPlurals.getId().equals(id))
+                        lastPlurals = new ResPlurals(SymbolTable.intern(symbols, id), symbols);
+
+                    tag = lastPlurals.addItem(
+                            SymbolTable.intern(symbols, readString(buffer, scratch)), "", modified);
+                    break;
+                }
+                default:
+                    return false;
+            }
+
+            final int handle = buffer.position();
+            skipContent(buffer);
+            tag.setContentSource(source, handle);
+            resources.loadTag(tag, source.isReference(handle));
+        }
+        return true;
+    }
+
+    private static String readString(final ByteBuffer buffer, final byte[] scratch) {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid string length");
+
+        final byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    // The content is stored as the length of its trimmed version followed by the string
+    private static String readContent(final ByteBuffer buffer, final byte[] scratch) {
+        buffer.getInt();
+        return readString(buffer, scratch);
+    }
+
+    private static void skipContent(final ByteBuffer buffer) {
+        buffer.getInt();
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid string length");
+
+        buffer.position(buffer.position() + length);
+    }
+
+    // Content source reading directly from the mapped snapshot. Only the most recently
+    // used strings are kept in memory, so huge files don't need to be fully decoded
+    private static class LazyContent implements ResTag.ContentSource {
+        private static final int MAX_CACHED = 256;
+
+        private final ByteBuffer mBuffer;
+        private final LinkedHashMap<Integer, String> mCache;
+
+        LazyContent(final ByteBuffer buffer) {
+            // We need our own position, since the buffer is still being read
+            mBuffer = buffer.duplicate();
+            mCache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+        }
+
+        @Override
+        public synchronized String getContent(final int handle) {
+            String result = mCache.get(handle);
+            if (result == null) {
+                // Trimming the bytes is the same as trimming the string,
+                // since none of the trimmed characters can be part of a
+                // multi-byte sequence, and it saves us from a copy
+                int start = handle + 8;
+                int end = start + mBuffer.getInt(handle + 4);
+                while (start < end && (mBuffer.get(start) & 0xff) <= ' ')
+                    start++;
+                while (end > start && (mBuffer.get(end - 1) & 0xff) <= ' ')
+                    end--;
+
+                final byte[] bytes = new byte[end - start];
+                mBuffer.position(start);
+                mBuffer.get(bytes);
+                result = new String(bytes, UTF_8);
+                mCache.put(handle, result);
+            }
+            return result;
+        }
+
+        @Override
+        public int getContentLength(final int handle) {
+            return mBuffer.getInt(handle);
+        }
+
+        // Those starting with "@" are not loaded as normal strings (see Resources.loadTag)
+        boolean isReference(final int handle) {
+            final int end = handle + 8 + mBuffer.getInt(handle + 4);
+            for (int i = handle + 8; i < end; ++i) {
+                final int c = mBuffer.get(i) & 0xff;
+                if (c > ' ')
+                    return c == '@';
+            }
+            return false;
+        }
+    }
+
+    //endregion
+
+    //region Saving
+
+    // Visitor used to record everything visited from a XML file, while forwarding it to
+    // another visitor. Once the whole file has been visited, the snapshot can be saved
+    static class Recorder implements ResourcesVisitor {
+        private final File mXml;
+        private final ResourcesVisitor mVisitor;
+
+        private final long mXmlLength;
+        private final long mXmlModified;
+        private final ByteArrayOutputStream mBody;
+        private final DataOutputStream mOut;
+        private int mCount;
+        private boolean mEnded;
+
+        Recorder(final File xml, final ResourcesVisitor visitor) {
+            mXml = xml;
+            mVisitor = visitor;
+            mXmlLength = xml.length();
+            mXmlModified = xml.lastModified();
+            mBody = new ByteArrayOutputStream((int) Math.min(mXmlLength, 1024 * 1024));
+            mOut = new DataOutputStream(mBody);
+        }
+
+        @Override
+        public void onString(String id, String content, boolean modified) {
+            mVisitor.onString(id, content, modified);
+            try {
+                writeHeader(TYPE_STRING, modified);
+                writeString(id);
+                writeContent(content);
+            } catch (IOException ignored) {
+                // Can't happen when writing to memory
+            }
+        }
+
+        @Override
+        public void onArrayItem(String arrayId, int index, String content, boolean modified) {
+            mVisitor.onArrayItem(arrayId, index, content, modified);
+            try {
+                writeHeader(TYPE_ARRAY_ITEM, modified);
+                writeString(arrayId);
+                mOut.writeInt(index);
+                writeContent(content);
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void onPluralItem(String pluralsId, String quantity, String content, boolean modified) {
+            mVisitor.onPluralItem(pluralsId, quantity, content, modified);
+            try {
+                writeHeader(TYPE_PLURAL_ITEM, modified);
+                writeString(pluralsId);
+                writeString(quantity);
+                writeContent(content);
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void onEnd() {
+            mVisitor.onEnd();
+            mEnded = true;
+        }
+
+        private void writeHeader(final byte type, final boolean modified) throws IOException {
+            mOut.writeByte(type);
+            mOut.writeByte(modified ? 1 : 0);
+            mCount++;
+        }
+
+        private void writeContent(final String content) throws IOException {
+            mOut.writeInt(content.trim().length());
+            writeString(content);
+        }
+
+        private void writeString(final String string) throws IOException {
+            final byte[] bytes = string.getBytes(UTF_8);
+            mOut.writeInt(bytes.length);
+            mOut.write(bytes);
+        }
+
+        // Saves the recorded snapshot. Returns true if it was saved
+        boolean save(final File snapshot) {
+            if (!mEnded)
+                return false;
+
+            final File parent = snapshot.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+                return false;
+
+            // Write to a temporary file and then rename it, so that the old snapshot
+            // is never left half-written if something goes wrong in the meantime
+            final File tmp = new File(snapshot.getPath() + ".tmp");
+            try {
+                final byte[] body = mBody.toByteArray();
+                final CRC32 bodyCrc = new CRC32();
+                bodyCrc.update(body, 0, body.length);
+
+                final long xmlCrc = crc(mXml, new byte[8192]);
+                // If the file changed while we were reading it, we don't know
+                // which version we parsed, so the snapshot cannot be trusted
+                if (mXml.length() != mXmlLength || mXml.lastModified() != mXmlModified)
+                    return false;
+
+                final OutputStream out = new FileOutputStream(tmp);
+                try {
+                    final DataOutputStream header = new DataOutputStream(out);
+                    header.writeInt(MAGIC);
+                    header.writeInt(VERSION);
+                    header.writeLong(mXmlLength);
+                    header.writeLong(mXmlModified);
+                    header.writeLong(xmlCrc);
+                    header.writeInt(mCount);
+                    header.writeInt(body.length);
+                    header.writeLong(bodyCrc.getValue());
+                    header.write(body);
+                    header.flush();
+                } finally {
+                    out.close();
+                }
+
+                if (!tmp.renameTo(snapshot)) {
+                    // Some platforms won't replace the destination file
+                    snapshot.delete();
+                    if (!tmp.renameTo(snapshot))
+                        return false;
+                }
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                if (tmp.isFile())
+                    tmp.delete();
+            }
+        }
+    }
+
+    //endregion
+
+    //region Utilities
+
+    private static long crc(final File file, final byte[] scratch) throws IOException {
+        final CRC32 crc = new CRC32();
+        final InputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(scratch)) != -1)
+                crc.update(scratch, 0, read);
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    // Hashes the remaining bytes on the buffer, without changing its position
+    private static long crc(final ByteBuffer buffer, final byte[] scratch) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer view = buffer.duplicate();
+        while (view.hasRemaining()) {
+            final int length = Math.min(scratch.length, view.remaining());
+            view.get(scratch, 0, length);
+            crc.update(scratch, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    //endregion
+}
@@ -26,6 +26,10 @@ public class ResourcesTranslation {
         if (original == null || translation == null)
             return result;
 
+        // The resources may be changing meanwhile (e.g. while being translated)
+        original = original.snapshot();
+        translation = translation.snapshot();
+
         if (filter == null || filter.isEmpty()) {
             for (ResTag rs : original) {
                 id = rs.getId();
@@ -0,0 +1,221 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writer used to save the strings.xml files, which are always UTF-8 and only have a handful
+// of different tags and attributes, instead of a generic XmlSerializer, or to copy the text
+// of a template as it is. The characters are escaped and encoded straight into a buffer
+// which is reused every time, rather than going through several Writer layers one call at
+// a time.
+//
+// The output is the same as that of the XmlSerializer on Android (its own KXmlSerializer),
+// byte for byte. This means that characters outside the BMP are written as character
+// references, that attribute values are quoted with ' if they contain any ", and that
+// empty tags are closed as "<tag />". Characters not allowed in XML (control characters
+// and unpaired surrogates) are refused with an IllegalArgumentException, as it does.
+final class ResourcesWriter {
+
+    //region Members
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // The most bytes a single character can take, which is "&#1114111;"
+    private static final int MAX_CHAR_LENGTH = 10;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mLength;
+
+    private OutputStream mOut;
+    private boolean mPendingStart; // The last start tag still needs its '>'
+
+    //endregion
+
+    //region Writing
+
+    void setOutput(final OutputStream out) {
+        mOut = out;
+        mLength = 0;
+        mPendingStart = false;
+    }
+
+    void startTag(final String name) throws IOException {
+        closeStartTag();
+        writeAscii('<');
+        writeAscii(name);
+        mPendingStart = true;
+    }
+
+    void attribute(final String name, final String value) throws IOException {
+        final char quote = value.indexOf('"') < 0 ? '"' : '\'';
+        writeAscii(' ');
+        writeAscii(name);
+        writeAscii('=');
+        writeAscii(quote);
+        writeEscaped(value, quote);
+        writeAscii(quote);
+    }
+
+    void text(final String text) throws IOException {
+        closeStartTag();
+        writeEscaped(text, -1);
+    }
+
+    void endTag(final String name) throws IOException {
+        if (mPendingStart) {
+            mPendingStart = false;
+            writeAscii(" />");
+        } else {
+            writeAscii("</");
+            writeAscii(name);
+            writeAscii('>');
+        }
+    }
+
+    // Writes the characters at [start, end) as they are, without escaping anything, which
+    // is used to copy the text of a template (see TemplatePlan). ASCII runs are copied whole
+    void raw(final CharSequence s, int start, final int end) throws IOException {
+        closeStartTag();
+        while (start < end) {
+            if (mLength + MAX_CHAR_LENGTH >= BUFFER_SIZE)
+                drain();
+
+            final int limit = Math.min(end, start + BUFFER_SIZE - MAX_CHAR_LENGTH - mLength);
+            char c;
+            while (start < limit && (c = s.charAt(start)) < 0x80) {
+                mBuffer[mLength++] = (byte) c;
+                ++start;
+            }
+            if (start < limit)
+                start = writeNonAscii(s, start, end) + 1;
+        }
+    }
+
+    void flush() throws IOException {
+        closeStartTag();
+        mOut.write(mBuffer, 0, mLength);
+        mLength = 0;
+        mOut.flush();
+    }
+
+    private void closeStartTag() throws IOException {
+        if (mPendingStart) {
+            mPendingStart = false;
+            writeAscii('>');
+        }
+    }
+
+    //endregion
+
+    //region Encoding
+
+    // Escapes the characters as the XmlSerializer does, with quote being -1 for text
+    private void writeEscaped(final String s, final int quote) throws IOException {
+        final int length = s.length();
+        for (int i = 0; i < length; ++i) {
+            if (mLength + MAX_CHAR_LENGTH > BUFFER_SIZE)
+                drain();
+
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '\n':
+                    case '\r':
+                    case '\t':
+                        if (quote == -1)
+                            mBuffer[mLength++] = (byte) c;
+                        else
+                            writeReference(c);
+                        break;
+                    case '&':
+                        writeAscii("&amp;");
+                        break;
+                    case '>':
+                        writeAscii("&gt;");
+                        break;
+                    case '<':
+                        writeAscii("&lt;");
+                        break;
+                    default:
+                        if (c == quote)
+                            writeAscii(c == '"' ? "&quot;" : "&apos;");
+                        else if (c >= ' ')
+                            mBuffer[mLength++] = (byte) c;
+                        else
+                            throw invalidCharacter(c);
+                        break;
+                }
+            } else if (c <= 0xd7ff || (c >= 0xe000 && c <= 0xfffd)) {
+                i = writeNonAscii(s, i, length);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length) {
+                final char low = s.charAt(++i);
+                if (!Character.isLowSurrogate(low))
+                    throw new IllegalArgumentException("Bad surrogate pair (U+" +
+                            Integer.toHexString(c) + " U+" + Integer.toHexString(low) + ")");
+
+                writeReference(Character.toCodePoint(c, low));
+            } else {
+                throw invalidCharacter(c);
+            }
+        }
+    }
+
+    private static IllegalArgumentException invalidCharacter(final char c) {
+        return new IllegalArgumentException("Illegal character (U+" + Integer.toHexString(c) + ")");
+    }
+
+    // Encodes the non-ASCII character at i, before end, which there must be room for.
+    // Returns the position of its last char (surrogate pairs take two)
+    private int writeNonAscii(final CharSequence s, int i, final int end) {
+        final char c = s.charAt(i);
+        if (c < 0x800) {
+            mBuffer[mLength++] = (byte) (0xc0 | (c >> 6));
+            mBuffer[mLength++] = (byte) (0x80 | (c & 0x3f));
+        } else if (!Character.isSurrogate(c)) {
+            mBuffer[mLength++] = (byte) (0xe0 | (c >> 12));
+            mBuffer[mLength++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            mBuffer[mLength++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < end &&
+                Character.isLowSurrogate(s.charAt(i + 1))) {
+            final int cp = Character.toCodePoint(c, s.charAt(++i));
+            mBuffer[mLength++] = (byte) (0xf0 | (cp >> 18));
+            mBuffer[mLength++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            mBuffer[mLength++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            mBuffer[mLength++] = (byte) (0x80 | (cp & 0x3f));
+        } else {
+            // Unpaired surrogates can't be encoded, the OutputStreamWriter replaces them too
+            mBuffer[mLength++] = '?';
+        }
+        return i;
+    }
+
+    // Writes "&#N;" for the given code point
+    private void writeReference(final int codePoint) {
+        mBuffer[mLength++] = '&';
+        mBuffer[mLength++] = '#';
+        int divisor = 1;
+        while (divisor <= codePoint / 10)
+            divisor *= 10;
+        for (; divisor != 0; divisor /= 10)
+            mBuffer[mLength++] = (byte) ('0' + (codePoint / divisor) % 10);
+        mBuffer[mLength++] = ';';
+    }
+
+    private void writeAscii(final char c) throws IOException {
+        if (mLength == BUFFER_SIZE)
+            drain();
+        mBuffer[mLength++] = (byte) c;
+    }
+
+    private void writeAscii(final String s) throws IOException {
+        for (int i = 0; i < s.length(); ++i)
+            writeAscii(s.charAt(i));
+    }
+
+    private void drain() throws IOException {
+        mOut.write(mBuffer, 0, mLength);
+        mLength = 0;
+    }
+
+    //endregion
+}
@@ -0,0 +1,47 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+// Class used to share the strings that repeat a lot among the Resources of the same
+// repository, such as the IDs (which are the same for every locale) or the content
+// which was left untranslated, so that they're kept in memory only once.
+//
+// The strings are only weakly referenced, so once no Resources uses them, they're gone.
+public class SymbolTable {
+
+    //region Members
+
+    private final WeakHashMap<String, WeakReference<String>> mSymbols = new WeakHashMap<>();
+
+    //endregion
+
+    //region Interning
+
+    // Returns the instance of the string kept by this table, saving it if it's new
+    public synchronized String intern(final String string) {
+        if (string == null)
+            return null;
+
+        final WeakReference<String> ref = mSymbols.get(string);
+        if (ref != null) {
+            final String symbol = ref.get();
+            if (symbol != null)
+                return symbol;
+        }
+
+        mSymbols.put(string, new WeakReference<>(string));
+        return string;
+    }
+
+    // Same as above, but the table may be null, in which case nothing is interned
+    static String intern(final SymbolTable symbols, final String string) {
+        return symbols == null ? string : symbols.intern(string);
+    }
+
+    public synchronized int size() {
+        return mSymbols.size();
+    }
+
+    //endregion
+}
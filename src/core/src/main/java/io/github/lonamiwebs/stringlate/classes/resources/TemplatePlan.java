@@ -0,0 +1,379 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import net.gsantner.opoc.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResPlurals;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResStringArray;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResType;
+
+// The structure of a strings.xml file used as a template, analyzed once so that it can be
+// applied to as many locales as needed without scanning the file again for each of them.
+//
+// It knows where every tag is, its ID, and where the content to be replaced goes (its own,
+// or the content of its items along with their index or quantity), so applying it is only
+// a matter of copying the text in between and writing the translated content of the tags.
+// Plans never change once analyzed, so the same one can be applied from several threads.
+public final class TemplatePlan {
+
+    //region Members
+
+    // The text of the template, which everything else points into
+    private final String mXml;
+    private final Tag[] mTags;
+
+    private static final class Tag {
+        final ResType type;
+        final String id;
+        final String translatable;
+
+        // The whole tag is at [start, end), and it may take more than a line
+        final int start, end;
+        final boolean multiline;
+
+        // Where the translated content goes: [contentStarts[i], contentEnds[i]). There's
+        // one for a <string>, one per item for an array or plurals, and none for the rest
+        final int[] contentStarts, contentEnds;
+
+        // The quantity of each item, only for <plurals>
+        final String[] quantities;
+
+        Tag(final String xml, final TemplateScanner.Tag tag) {
+            type = tag.type;
+            id = tag.getAttribute(ResourcesParser.ID);
+            translatable = tag.getAttribute(ResourcesParser.TRANSLATABLE);
+
+            start = tag.start;
+            end = tag.end;
+            final int newline = xml.indexOf('\n', start);
+            multiline = newline >= 0 && newline < end;
+
+            switch (type) {
+                case STRING:
+                    contentStarts = new int[]{tag.contentStart};
+                    contentEnds = new int[]{tag.contentEnd};
+                    quantities = null;
+                    break;
+                case STRING_ARRAY:
+                case PLURALS:
+                    final int count = tag.items.size();
+                    contentStarts = new int[count];
+                    contentEnds = new int[count];
+                    quantities = type == ResType.PLURALS ? new String[count] : null;
+                    for (int i = 0; i < count; ++i) {
+                        final TemplateScanner.Tag item = tag.items.get(i);
+                        contentStarts[i] = item.contentStart;
+                        contentEnds[i] = item.contentEnd;
+                        if (quantities != null)
+                            quantities[i] = item.getAttribute(ResourcesParser.QUANTITY);
+                    }
+                    break;
+                default:
+                    contentStarts = contentEnds = new int[0];
+                    quantities = null;
+                    break;
+            }
+        }
+    }
+
+    //endregion
+
+    //region Constructors
+
+    private TemplatePlan(final String xml) {
+        mXml = xml;
+        final List<TemplateScanner.Tag> tags = TemplateScanner.scan(xml);
+        mTags = new Tag[tags.size()];
+        for (int i = 0; i < mTags.length; ++i)
+            mTags[i] = new Tag(xml, tags.get(i));
+    }
+
+    public static TemplatePlan fromFile(final File template) {
+        return new TemplatePlan(FileUtils.readTextFile(template));
+    }
+
+    public static TemplatePlan fromXml(final String xml) {
+        return new TemplatePlan(xml);
+    }
+
+    //endregion
+
+    //region Applying the template
+
+    // Writes the template with the content of its tags replaced by their translation, and
+    // without the tags which have none, as UTF-8. The output is flushed but left open.
+    // Returns TRUE if the template was applied successfully, or FALSE without writing
+    // anything if none of its tags have a translation
+    public boolean apply(final Resources resources, final OutputStream out) {
+        // 1. Find dirty tags (those which we have no translation for)
+        // TODO Ignore "<!-- <string name="missing">value</string> -->" comments?
+        // Maybe scan for comments and if a match is found inside a comment… Discard it?
+        // Or maybe it's just over complication.
+        boolean haveAny = false;
+        boolean haveDirty = false;
+
+        final boolean[] dirty = new boolean[mTags.length];
+        for (int i = 0; i < mTags.length; ++i) {
+            if (resources.contains(mTags[i].id)) {
+                // This file contains at least one translation
+                haveAny = true;
+            } else {
+                dirty[i] = haveDirty = true;
+            }
+        }
+
+        // There is no string we have a translation for, so there's nothing to write
+        if (!haveAny)
+            return false;
+
+        // 2. Copy everything but the dirty tags, replacing the content of the
+        // rest (which we have a translation for) with the translated content
+        final TemplateOutput output = new TemplateOutput(out, haveDirty);
+        try {
+            int last = 0;
+            for (int i = 0; i < mTags.length; ++i) {
+                final Tag tag = mTags[i];
+                output.text(mXml, last, tag.start);
+                if (dirty[i]) {
+                    output.removeTag();
+                } else {
+                    output.beginTag(tag.multiline);
+                    writeReplaceStrings(tag, resources, output);
+                }
+                last = tag.end;
+            }
+            output.text(mXml, last, mXml.length());
+            output.finish();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Writes the given tag, which we have a translation for, replacing its content
+    // (or the content of its items) with the translated content
+    private void writeReplaceStrings(final Tag tag, final Resources resources,
+                                     final TemplateOutput output) throws IOException {
+        if (tag.id.isEmpty()) {
+            output.write(mXml, tag.start, tag.end);
+            return;
+        }
+
+        // Should never fail - plus do we even care it's empty? No resource would be found
+        // Also, we obviously have this string translated (we checked before, right?),
+        // thus there is no need to ensure whether we need to delete the line or not
+        final ResTag rt = resources.getTag(tag.type.markID(tag.id));
+        int last = tag.start;
+        switch (tag.type) {
+            case STRING:
+                output.write(mXml, last, tag.contentStarts[0]);
+                output.write(ResTag.sanitizeContent(rt.getContent() == null ? "" : rt.getContent()));
+                last = tag.contentEnds[0];
+                break;
+            case STRING_ARRAY:
+                final ResStringArray array = ((ResStringArray.Item) rt).getParent();
+                for (int i = 0; i < tag.contentStarts.length; ++i) {
+                    // We might not have this content, but we wish to keep the order
+                    final ResStringArray.Item item = array.getItem(i);
+                    final String content = item == null ? null : item.getContent();
+                    output.write(mXml, last, tag.contentStarts[i]);
+                    output.write(ResTag.sanitizeContent(content == null ? "" : content));
+                    last = tag.contentEnds[i];
+                }
+                break;
+            case PLURALS:
+                final ResPlurals plurals = ((ResPlurals.Item) rt).getParent();
+                for (int i = 0; i < tag.contentStarts.length; ++i) {
+                    // We might not have this content, but we wish to keep the order
+                    final ResPlurals.Item item = plurals.getItem(tag.quantities[i]);
+                    final String content = item == null ? "" : item.getContent();
+                    output.write(mXml, last, tag.contentStarts[i]);
+                    output.write(ResTag.sanitizeContent(content));
+                    last = tag.contentEnds[i];
+                }
+                break;
+            // case ResType.ITEM: break; // Should not be on the wild though
+        }
+        output.write(mXml, last, tag.end);
+    }
+
+    //endregion
+
+    //region Removing the untranslatable strings
+
+    // Determines whether any of the tags is translatable
+    boolean hasTranslatable() {
+        for (Tag tag : mTags)
+            if (!tag.translatable.equals("false"))
+                return true;
+
+        return false;
+    }
+
+    // Writes the template without the tags which are not translatable, as UTF-8
+    void writeTranslatable(final OutputStream out) throws IOException {
+        boolean haveDirty = false;
+        for (Tag tag : mTags)
+            haveDirty |= tag.translatable.equals("false");
+
+        // There may be no dirty tags, in which case it's a plain copy
+        final TemplateOutput output = new TemplateOutput(out, haveDirty);
+        int last = 0;
+        for (Tag tag : mTags) {
+            output.text(mXml, last, tag.start);
+            if (tag.translatable.equals("false")) {
+                output.removeTag();
+            } else {
+                output.beginTag(tag.multiline);
+                output.write(mXml, tag.start, tag.end);
+            }
+            last = tag.end;
+        }
+        output.text(mXml, last, mXml.length());
+        output.finish();
+    }
+
+    //endregion
+
+    //region Output
+
+    // Writer for the result of applying a template (or removing its untranslatable strings),
+    // given the text in between the tags, the tags which are kept and the removed ones.
+    //
+    // If any tag was removed, the lines left with only whitespace after removing them are
+    // dropped too (although only until a line which also had something else on it is found),
+    // the empty lines at the end are dropped, and the last line always ends with '\n'.
+    // The text is only held back while the current line is blank, to know if it's dropped,
+    // and otherwise it's copied in whole spans straight into the buffer of the writer.
+    private static final class TemplateOutput {
+        private final ResourcesWriter mWriter = new ResourcesWriter();
+        private final boolean mDropLines;
+
+        // The current line is blank as far as it was written, and this is its text so far
+        private final StringBuilder mBlank = new StringBuilder();
+        private boolean mLineBlank = true;
+        private boolean mLineDirty;
+        private boolean mKeepLines;
+
+        // Empty lines written so far, which are only written once something comes after them
+        private int mEmptyLines;
+
+        TemplateOutput(final OutputStream out, final boolean dropLines) {
+            mWriter.setOutput(out);
+            mDropLines = dropLines;
+        }
+
+        // Writes the text of the template at [start, end), not part of any tag
+        void text(final String xml, int start, final int end) throws IOException {
+            if (!mDropLines) {
+                mWriter.raw(xml, start, end);
+                return;
+            }
+
+            while (start < end) {
+                if (mLineBlank) {
+                    final char c = xml.charAt(start);
+                    if (c == '\n') {
+                        endLine();
+                        ++start;
+                        continue;
+                    } else if (Character.isWhitespace(c)) {
+                        mBlank.append(c);
+                        ++start;
+                        continue;
+                    }
+                    writeBlank();
+                    mLineBlank = false;
+                }
+
+                final int newline = xml.indexOf('\n', start);
+                if (newline < 0 || newline >= end) {
+                    mWriter.raw(xml, start, end);
+                    return;
+                }
+                mWriter.raw(xml, start, newline);
+                endLine();
+                start = newline + 1;
+            }
+        }
+
+        // Notifies that a tag was removed from the current line
+        void removeTag() {
+            mLineDirty = true;
+        }
+
+        // Notifies that a tag is about to be written. None of the lines it takes
+        // are ever dropped, but the first one is where the current line ends, if any
+        void beginTag(final boolean multiline) throws IOException {
+            if (!mDropLines)
+                return;
+
+            if (mLineBlank) {
+                writeBlank();
+                mLineBlank = false;
+            }
+
+            if (multiline) {
+                mKeepLines |= mLineDirty;
+                mLineDirty = false;
+            }
+        }
+
+        // Writes (part of) a tag, after beginTag has been called
+        void write(final String xml, final int start, final int end) throws IOException {
+            mWriter.raw(xml, start, end);
+        }
+
+        void write(final String string) throws IOException {
+            mWriter.raw(string, 0, string.length());
+        }
+
+        private void endLine() throws IOException {
+            if (mLineBlank) {
+                if (mLineDirty && !mKeepLines) {
+                    mBlank.setLength(0); // Drop the line
+                } else if (mBlank.length() == 0) {
+                    ++mEmptyLines;
+                } else {
+                    writeBlank();
+                    newLine();
+                }
+            } else {
+                // Once a line with a removed tag is kept, no other line is dropped
+                mKeepLines |= mLineDirty;
+                newLine();
+            }
+            mLineBlank = true;
+            mLineDirty = false;
+        }
+
+        private void writeBlank() throws IOException {
+            for (; mEmptyLines != 0; --mEmptyLines)
+                newLine();
+
+            mWriter.raw(mBlank, 0, mBlank.length());
+            mBlank.setLength(0);
+        }
+
+        private void newLine() throws IOException {
+            mWriter.raw("\n", 0, 1);
+        }
+
+        // Writes whatever is left and flushes the output, without closing it
+        void finish() throws IOException {
+            // The last line is only ended if it's not empty
+            if (mDropLines && (!mLineBlank || mBlank.length() != 0))
+                endLine();
+
+            mWriter.flush();
+        }
+    }
+
+    //endregion
+}
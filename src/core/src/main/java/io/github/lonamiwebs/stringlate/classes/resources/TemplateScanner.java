@@ -0,0 +1,235 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResType;
+
+// Tokenizer used to find the <string>, <string-array>, <plurals> and <item> tags on the
+// text of a strings.xml file used as a template, along with their attributes and content,
+// so that they can be removed or their content replaced while leaving the rest untouched.
+//
+// It finds exactly the same tags the following regex used to find, one after another:
+//   <(string(?:-array)?|plurals|item)((?:\s+\w+\s*=\s*"\w+")*)\s*>([\S\s]*?)(?:</\s*\1\s*>)
+// So only the attributes whose value is a single word are understood (a tag with any other
+// attribute is ignored), and the content of a tag ends on the first end tag with its name.
+//
+// Unlike the regex, the text is scanned only once: the position where every end tag was
+// last found is remembered, so tags which are never closed don't make it look ahead again.
+final class TemplateScanner {
+
+    //region Members
+
+    private static final String[] NAMES = {"string-array", "string", "plurals", "item"};
+    private static final ResType[] TYPES = {
+            ResType.STRING_ARRAY, ResType.STRING, ResType.PLURALS, ResType.ITEM
+    };
+
+    private final String mXml;
+    private final int mEnd;
+
+    // For each name, the position from which its end tag was last looked for, and where
+    // the first one after it was found (or -1 if there is none until the end)
+    private final int[] mCloseFrom = new int[NAMES.length];
+    private final int[] mCloseAt = new int[NAMES.length];
+
+    static final class Tag {
+        final ResType type;
+
+        // The whole tag is at [start, end), and its content at [contentStart, contentEnd)
+        final int start, end;
+        final int contentStart, contentEnd;
+
+        // Name and value pairs, in the same order as they appear
+        private final String[] mAttributes;
+
+        // The <item>s found inside the content of a <string-array> or <plurals>, else null
+        final List<Tag> items;
+
+        private Tag(final ResType type, final int start, final int end,
+                    final int contentStart, final int contentEnd,
+                    final String[] attributes, final List<Tag> items) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.contentStart = contentStart;
+            this.contentEnd = contentEnd;
+            mAttributes = attributes;
+            this.items = items;
+        }
+
+        // Returns the value of the first attribute with any of the given names, or ""
+        String getAttribute(final String... names) {
+            for (int i = 0; i < mAttributes.length; i += 2)
+                for (String name : names)
+                    if (mAttributes[i].equals(name))
+                        return mAttributes[i + 1];
+
+            return "";
+        }
+    }
+
+    //endregion
+
+    //region Constructors
+
+    private TemplateScanner(final String xml, final int end) {
+        mXml = xml;
+        mEnd = end;
+        for (int i = 0; i < NAMES.length; ++i)
+            mCloseFrom[i] = Integer.MAX_VALUE;
+    }
+
+    //endregion
+
+    //region Scanning
+
+    // Returns the tags found on the given xml, in order
+    static List<Tag> scan(final String xml) {
+        return new TemplateScanner(xml, xml.length()).scan(0, true);
+    }
+
+    // Scans [start, mEnd) for tags. The items of the arrays and plurals
+    // are looked for too if nested, but only the top-level tags are returned
+    private List<Tag> scan(final int start, final boolean nested) {
+        final ArrayList<Tag> tags = new ArrayList<>();
+        int i = start;
+        while (i < mEnd) {
+            final int open = mXml.indexOf('<', i);
+            if (open < 0 || open >= mEnd)
+                break;
+
+            final Tag tag = scanTag(open, nested);
+            if (tag == null) {
+                i = open + 1;
+            } else {
+                tags.add(tag);
+                i = tag.end;
+            }
+        }
+        return tags;
+    }
+
+    // Scans the tag starting at the given '<'. Returns null if there's none
+    private Tag scanTag(final int open, final boolean nested) {
+        int which = 0;
+        while (which < NAMES.length && !startsWith(NAMES[which], open + 1))
+            ++which;
+
+        if (which == NAMES.length)
+            return null;
+
+        // Attributes: (\s+\w+\s*=\s*"\w+")*
+        final ArrayList<String> attributes = new ArrayList<>();
+        int i = open + 1 + NAMES[which].length();
+        while (true) {
+            int j = skipSpace(i);
+            if (j == i)
+                break;
+
+            final int nameStart = j;
+            j = skipWord(j);
+            if (j == nameStart)
+                break;
+
+            final int nameEnd = j;
+            j = skipSpace(j);
+            if (!startsWith("=", j))
+                break;
+
+            j = skipSpace(j + 1);
+            if (!startsWith("\"", j))
+                break;
+
+            final int valueStart = j + 1;
+            j = skipWord(valueStart);
+            if (j == valueStart || !startsWith("\"", j))
+                break;
+
+            attributes.add(mXml.substring(nameStart, nameEnd));
+            attributes.add(mXml.substring(valueStart, j));
+            i = j + 1;
+        }
+
+        // \s*>
+        i = skipSpace(i);
+        if (!startsWith(">", i))
+            return null;
+
+        // ([\S\s]*?)</\s*\1\s*>
+        final int contentStart = i + 1;
+        final int contentEnd = findClose(which, contentStart);
+        if (contentEnd < 0)
+            return null;
+
+        final int end = skipSpace(skipSpace(contentEnd + 2) + NAMES[which].length()) + 1;
+        final ResType type = TYPES[which];
+
+        List<Tag> items = null;
+        if (nested && (type == ResType.STRING_ARRAY || type == ResType.PLURALS)) {
+            items = new ArrayList<>();
+            // The items must be found within the content, as if nothing else came after it
+            for (Tag tag : new TemplateScanner(mXml, contentEnd).scan(contentStart, false))
+                if (tag.type == ResType.ITEM)
+                    items.add(tag);
+        }
+
+        return new Tag(type, open, end, contentStart, contentEnd,
+                attributes.toArray(new String[attributes.size()]), items);
+    }
+
+    // Returns the position of the first end tag for the given name after start, or -1
+    private int findClose(final int which, final int start) {
+        final int at = mCloseAt[which];
+        if (mCloseFrom[which] <= start && (at < 0 || at >= start))
+            return at;
+
+        final String name = NAMES[which];
+        int close = mXml.indexOf("</", start);
+        while (close >= 0 && close < mEnd) {
+            final int nameStart = skipSpace(close + 2);
+            if (startsWith(name, nameStart) && startsWith(">", skipSpace(nameStart + name.length())))
+                break;
+
+            close = mXml.indexOf("</", close + 1);
+        }
+        if (close >= mEnd)
+            close = -1;
+
+        mCloseFrom[which] = start;
+        mCloseAt[which] = close;
+        return close;
+    }
+
+    //endregion
+
+    //region Characters
+
+    private boolean startsWith(final String prefix, final int i) {
+        return i + prefix.length() <= mEnd && mXml.startsWith(prefix, i);
+    }
+
+    // As matched by \s
+    private int skipSpace(int i) {
+        while (i < mEnd) {
+            final char c = mXml.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r')
+                break;
+            ++i;
+        }
+        return i;
+    }
+
+    // As matched by \w
+    private int skipWord(int i) {
+        while (i < mEnd) {
+            final char c = mXml.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9') && c != '_')
+                break;
+            ++i;
+        }
+        return i;
+    }
+
+    //endregion
+}
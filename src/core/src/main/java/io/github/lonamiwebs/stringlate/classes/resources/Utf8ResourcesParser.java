@@ -0,0 +1,716 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+// Hand-written parser for the tiny XML subset used by strings.xml files, scanning
+// the UTF-8 bytes directly. It implements just enough of XmlPullParser to be used
+// by the ResourcesParser, so both share the same reading logic (and results).
+//
+// Files using anything this parser doesn't handle (DTDs, other encodings, unknown
+// entities…) must be detected by canParse() first and given to a real XmlPullParser.
+class Utf8ResourcesParser implements XmlPullParser {
+
+    //region Constants
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The names we see the most, so that we don't need to decode them every time
+    private static final String[] KNOWN_NAMES = {
+            "resources", "string", "string-array", "plurals", "item", "name", "quantity",
+            "index", "modified", "translatable", "translate", "translateable", "tools:ignore",
+            "b", "i", "u", "xliff:g", "id", "example"
+    };
+    private static final byte[][] KNOWN_NAME_BYTES = new byte[KNOWN_NAMES.length][];
+
+    static {
+        for (int i = 0; i < KNOWN_NAMES.length; ++i)
+            KNOWN_NAME_BYTES[i] = KNOWN_NAMES[i].getBytes(UTF_8);
+    }
+
+    private static final byte[] COMMENT_START = {'<', '!', '-', '-'};
+    private static final byte[] COMMENT_END = {'-', '-', '>'};
+    private static final byte[] CDATA_START = {'<', '!', '[', 'C', 'D', 'A', 'T', 'A', '['};
+    private static final byte[] CDATA_END = {']', ']', '>'};
+    private static final byte[] PI_END = {'?', '>'};
+    private static final byte[] XML_DECL_START = {'<', '?', 'x', 'm', 'l'};
+
+    //endregion
+
+    //region Members
+
+    private byte[] mData;
+    private int mPos, mEnd;
+
+    private int mType;
+    private String mName;
+    private String mText;
+    private boolean mPendingEndTag; // After a self-closing tag (<tag/>)
+
+    private int mAttrCount;
+    private String[] mAttrNames = new String[8];
+    private String[] mAttrValues = new String[8];
+
+    private int mDepth;
+    private String[] mOpenTags = new String[16];
+
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    //endregion
+
+    //region Checking whether we can parse
+
+    // Determines whether the given data only uses constructs that this parser handles.
+    // Anything malformed that passes this check is malformed for XmlPull too.
+    static boolean canParse(final byte[] data, final int length) {
+        int i = 0;
+        if (length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+            i = 3; // UTF-8 BOM
+        } else if (length >= 2 && (data[0] == 0 || data[1] == 0 || (data[0] & 0xFF) >= 0xFE)) {
+            return false; // Probably UTF-16 or UTF-32
+        }
+
+        if (startsWith(data, i, length, XML_DECL_START)) {
+            int end = indexOf(data, i, length, PI_END);
+            if (end < 0 || !hasUtf8Encoding(data, i, end))
+                return false;
+            i = end + PI_END.length;
+        }
+
+        boolean inTag = false;
+        byte quote = 0;
+        while (i < length) {
+            byte c = data[i];
+            if (quote == 0 && !inTag && c != '<' && c != '&' && c != ']') {
+                i++; // Most of the bytes are plain text
+                continue;
+            }
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '<' || c == '\n' || c == '\r' || c == '\t') {
+                    return false; // Attribute values would need normalization
+                } else if (c == '&') {
+                    if ((i = checkEntity(data, i, length)) < 0)
+                        return false;
+                    continue;
+                }
+            } else if (inTag) {
+                if (c == '"' || c == '\'')
+                    quote = c;
+                else if (c == '>')
+                    inTag = false;
+                else if (c == '<' || c == '&')
+                    return false;
+            } else if (c == '<') {
+                if (startsWith(data, i, length, COMMENT_START)) {
+                    i = indexOf(data, i + COMMENT_START.length, length, COMMENT_END);
+                    if (i < 0)
+                        return false;
+                    i += COMMENT_END.length;
+                    continue;
+                } else if (startsWith(data, i, length, CDATA_START)) {
+                    i = indexOf(data, i + CDATA_START.length, length, CDATA_END);
+                    if (i < 0)
+                        return false;
+                    i += CDATA_END.length;
+                    continue;
+                } else if (i + 1 < length && data[i + 1] == '!') {
+                    return false; // <!DOCTYPE, <!ENTITY…
+                } else if (i + 1 < length && data[i + 1] == '?') {
+                    i = indexOf(data, i, length, PI_END);
+                    if (i < 0)
+                        return false;
+                    i += PI_END.length;
+                    continue;
+                }
+                inTag = true;
+            } else if (c == '&') {
+                if ((i = checkEntity(data, i, length)) < 0)
+                    return false;
+                continue;
+            } else if (c == ']' && startsWith(data, i, length, CDATA_END)) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    // Returns the position after the entity at i, or -1 if we don't handle it
+    private static int checkEntity(final byte[] data, int i, final int length) {
+        final int semicolon = indexOf(data, i, length, (byte) ';');
+        if (semicolon < 0)
+            return -1;
+
+        return resolveEntity(data, i + 1, semicolon) < 0 ? -1 : semicolon + 1;
+    }
+
+    private static boolean hasUtf8Encoding(final byte[] data, final int start, final int end) {
+        final String decl = new String(data, start, end - start, UTF_8);
+        final int at = decl.indexOf("encoding");
+        if (at < 0)
+            return true; // UTF-8 is the default
+
+        int i = decl.indexOf('=', at);
+        if (i < 0)
+            return false;
+
+        final String value = decl.substring(i + 1).trim();
+        return value.length() > 6 && value.substring(1, 6).equalsIgnoreCase("utf-8");
+    }
+
+    //endregion
+
+    //region Input
+
+    void setInput(final byte[] data, final int length) {
+        mData = data;
+        mPos = 0;
+        mEnd = length;
+        mType = START_DOCUMENT;
+        mName = null;
+        mText = null;
+        mPendingEndTag = false;
+        mAttrCount = 0;
+        mDepth = 0;
+
+        if (length >= 3 && (data[0] & 0xFF) == 0xEF)
+            mPos = 3; // UTF-8 BOM, checked by canParse()
+    }
+
+    @Override
+    public void setInput(Reader in) throws XmlPullParserException {
+        throw new XmlPullParserException("Only UTF-8 byte input is supported");
+    }
+
+    @Override
+    public void setInput(InputStream inputStream, String inputEncoding) throws XmlPullParserException {
+        throw new XmlPullParserException("Only UTF-8 byte input is supported");
+    }
+
+    @Override
+    public String getInputEncoding() {
+        return "UTF-8";
+    }
+
+    //endregion
+
+    //region Features and properties
+
+    @Override
+    public void setFeature(String name, boolean state) throws XmlPullParserException {
+        if (state)
+            throw new XmlPullParserException("Unsupported feature: " + name);
+    }
+
+    @Override
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    @Override
+    public void setProperty(String name, Object value) throws XmlPullParserException {
+        throw new XmlPullParserException("Unsupported property: " + name);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public void defineEntityReplacementText(String entityName, String replacementText)
+            throws XmlPullParserException {
+        throw new XmlPullParserException("Custom entities are not supported");
+    }
+
+    //endregion
+
+    //region Parsing
+
+    @Override
+    public int next() throws XmlPullParserException {
+        if (mPendingEndTag) {
+            mPendingEndTag = false;
+            mAttrCount = 0;
+            mDepth--;
+            return mType = END_TAG;
+        }
+        mAttrCount = 0;
+        mText = null;
+
+        // Text, CDATA sections, comments and processing instructions all merge into
+        // a single TEXT event, like the other XmlPull implementations do on next()
+        boolean haveText = false;
+        mBuilder.setLength(0);
+        while (mPos < mEnd) {
+            if (mData[mPos] != '<') {
+                readText();
+                haveText = true;
+            } else if (startsWith(mData, mPos, mEnd, COMMENT_START)) {
+                mPos = indexOf(mData, mPos + COMMENT_START.length, mEnd, COMMENT_END);
+                if (mPos < 0)
+                    throw error("Unterminated comment");
+                mPos += COMMENT_END.length;
+            } else if (startsWith(mData, mPos, mEnd, CDATA_START)) {
+                final int start = mPos + CDATA_START.length;
+                mPos = indexOf(mData, start, mEnd, CDATA_END);
+                if (mPos < 0)
+                    throw error("Unterminated CDATA section");
+                appendNormalized(new String(mData, start, mPos - start, UTF_8));
+                mPos += CDATA_END.length;
+                haveText = true;
+            } else if (mPos + 1 < mEnd && mData[mPos + 1] == '?') {
+                mPos = indexOf(mData, mPos, mEnd, PI_END);
+                if (mPos < 0)
+                    throw error("Unterminated processing instruction");
+                mPos += PI_END.length;
+            } else {
+                break;
+            }
+        }
+        if (haveText) {
+            mText = mBuilder.toString();
+            mName = null;
+            return mType = TEXT;
+        }
+
+        if (mPos >= mEnd) {
+            if (mDepth != 0)
+                throw error("Unexpected end of document");
+            mName = null;
+            return mType = END_DOCUMENT;
+        }
+
+        mPos++; // '<'
+        if (mPos < mEnd && mData[mPos] == '/') {
+            mPos++;
+            mName = readName();
+            skipWhitespace();
+            expect('>');
+            if (mDepth == 0 || !mOpenTags[mDepth - 1].equals(mName))
+                throw error("Unexpected end tag </" + mName + ">");
+            mDepth--;
+            return mType = END_TAG;
+        } else {
+            mName = readName();
+            readAttributes();
+            if (mDepth == mOpenTags.length) {
+                String[] openTags = new String[mDepth * 2];
+                System.arraycopy(mOpenTags, 0, openTags, 0, mDepth);
+                mOpenTags = openTags;
+            }
+            mOpenTags[mDepth++] = mName;
+            return mType = START_TAG;
+        }
+    }
+
+    @Override
+    public int nextToken() throws XmlPullParserException {
+        return next();
+    }
+
+    @Override
+    public int nextTag() throws XmlPullParserException {
+        next();
+        if (mType == TEXT && isWhitespace())
+            next();
+
+        if (mType != START_TAG && mType != END_TAG)
+            throw error("Expected start or end tag");
+        return mType;
+    }
+
+    @Override
+    public String nextText() throws XmlPullParserException {
+        if (mType != START_TAG)
+            throw error("Parser must be on START_TAG to read next text");
+
+        String result = "";
+        if (next() == TEXT) {
+            result = mText;
+            next();
+        }
+        if (mType != END_TAG)
+            throw error("Expected END_TAG after the text");
+        return result;
+    }
+
+    @Override
+    public void require(int type, String namespace, String name) throws XmlPullParserException {
+        if (type != mType
+                || (namespace != null && !namespace.equals(getNamespace()))
+                || (name != null && !name.equals(getName())))
+            throw error("Expected " + TYPES[type] + " " + name);
+    }
+
+    // Reads text up to the next '<', resolving entities and normalizing new lines
+    private void readText() throws XmlPullParserException {
+        int start = mPos;
+        while (mPos < mEnd) {
+            final byte c = mData[mPos];
+            if (c == '<') {
+                break;
+            } else if (c == '&') {
+                appendNormalized(new String(mData, start, mPos - start, UTF_8));
+                mPos = appendEntity(mPos);
+                start = mPos;
+            } else {
+                mPos++;
+            }
+        }
+        appendNormalized(new String(mData, start, mPos - start, UTF_8));
+    }
+
+    private void appendNormalized(final String text) {
+        if (text.indexOf('\r') < 0)
+            mBuilder.append(text);
+        else
+            mBuilder.append(text.replace("\r\n", "\n").replace('\r', '\n'));
+    }
+
+    private void readAttributes() throws XmlPullParserException {
+        while (true) {
+            skipWhitespace();
+            if (mPos >= mEnd)
+                throw error("Unexpected end of document");
+
+            final byte c = mData[mPos];
+            if (c == '>') {
+                mPos++;
+                return;
+            } else if (c == '/') {
+                mPos++;
+                expect('>');
+                mPendingEndTag = true;
+                return;
+            }
+
+            final String name = readName();
+            skipWhitespace();
+            expect('=');
+            skipWhitespace();
+            if (mPos >= mEnd || (mData[mPos] != '"' && mData[mPos] != '\''))
+                throw error("Expected a quoted attribute value");
+
+            final byte quote = mData[mPos++];
+            int start = mPos;
+            mBuilder.setLength(0);
+            while (mPos < mEnd && mData[mPos] != quote) {
+                if (mData[mPos] == '&') {
+                    mBuilder.append(new String(mData, start, mPos - start, UTF_8));
+                    mPos = appendEntity(mPos);
+                    start = mPos;
+                } else {
+                    mPos++;
+                }
+            }
+            if (mPos >= mEnd)
+                throw error("Unterminated attribute value");
+            mBuilder.append(new String(mData, start, mPos - start, UTF_8));
+            mPos++; // Closing quote
+
+            if (mAttrCount == mAttrNames.length) {
+                String[] names = new String[mAttrCount * 2];
+                String[] values = new String[mAttrCount * 2];
+                System.arraycopy(mAttrNames, 0, names, 0, mAttrCount);
+                System.arraycopy(mAttrValues, 0, values, 0, mAttrCount);
+                mAttrNames = names;
+                mAttrValues = values;
+            }
+            mAttrNames[mAttrCount] = name;
+            mAttrValues[mAttrCount] = mBuilder.toString();
+            mAttrCount++;
+        }
+    }
+
+    private String readName() throws XmlPullParserException {
+        final int start = mPos;
+        while (mPos < mEnd) {
+            final byte c = mData[mPos];
+            if (c == '>' || c == '/' || c == '=' || c == '<' || (c <= ' ' && c >= 0))
+                break;
+            mPos++;
+        }
+        if (mPos == start)
+            throw error("Expected a name");
+
+        final int length = mPos - start;
+        for (int i = 0; i < KNOWN_NAME_BYTES.length; ++i)
+            if (regionEquals(mData, start, length, KNOWN_NAME_BYTES[i]))
+                return KNOWN_NAMES[i];
+
+        return new String(mData, start, length, UTF_8);
+    }
+
+    private void skipWhitespace() {
+        while (mPos < mEnd && mData[mPos] <= ' ' && mData[mPos] >= 0)
+            mPos++;
+    }
+
+    private void expect(final char c) throws XmlPullParserException {
+        if (mPos >= mEnd || mData[mPos] != c)
+            throw error("Expected '" + c + "'");
+        mPos++;
+    }
+
+    // Appends the entity found at i (which must be '&'), returning the position after it
+    private int appendEntity(final int i) throws XmlPullParserException {
+        final int semicolon = indexOf(mData, i, mEnd, (byte) ';');
+        final int c = semicolon < 0 ? -1 : resolveEntity(mData, i + 1, semicolon);
+        if (c < 0)
+            throw error("Unresolved entity");
+
+        mBuilder.append((char) c);
+        return semicolon + 1;
+    }
+
+    // Returns the character the entity at [start, end) represents, or -1 if unknown.
+    // Only those which fit into a single char are handled, others are left to XmlPull.
+    private static int resolveEntity(final byte[] data, final int start, final int end) {
+        final int length = end - start;
+        if (length >= 2 && data[start] == '#') {
+            int value = 0;
+            if (data[start + 1] == 'x') {
+                if (length == 2 || length > 6)
+                    return -1;
+                for (int i = start + 2; i < end; ++i) {
+                    final int digit = Character.digit(data[i], 16);
+                    if (digit < 0)
+                        return -1;
+                    value = value * 16 + digit;
+                }
+            } else {
+                if (length > 6)
+                    return -1;
+                for (int i = start + 1; i < end; ++i) {
+                    if (data[i] < '0' || data[i] > '9')
+                        return -1;
+                    value = value * 10 + (data[i] - '0');
+                }
+            }
+            return value > 0xFFFF || (value >= 0xD800 && value <= 0xDFFF) ? -1 : value;
+        }
+
+        if (length == 2 && data[start + 1] == 't') {
+            if (data[start] == 'l') return '<';
+            if (data[start] == 'g') return '>';
+        } else if (length == 3 && data[start] == 'a' && data[start + 1] == 'm' && data[start + 2] == 'p') {
+            return '&';
+        } else if (length == 4) {
+            if (data[start] == 'q' && data[start + 1] == 'u' && data[start + 2] == 'o' && data[start + 3] == 't')
+                return '"';
+            if (data[start] == 'a' && data[start + 1] == 'p' && data[start + 2] == 'o' && data[start + 3] == 's')
+                return '\'';
+        }
+        return -1;
+    }
+
+    private XmlPullParserException error(final String message) {
+        return new XmlPullParserException(message + " (position " + mPos + ")", this, null);
+    }
+
+    //endregion
+
+    //region Byte utilities
+
+    private static boolean startsWith(final byte[] data, final int at, final int length, final byte[] prefix) {
+        return at + prefix.length <= length && regionEquals(data, at, prefix.length, prefix);
+    }
+
+    private static boolean regionEquals(final byte[] data, final int at, final int length, final byte[] other) {
+        if (length != other.length)
+            return false;
+
+        for (int i = 0; i < length; ++i)
+            if (data[at + i] != other[i])
+                return false;
+        return true;
+    }
+
+    private static int indexOf(final byte[] data, int from, final int length, final byte[] what) {
+        for (final int last = length - what.length; from <= last; ++from)
+            if (data[from] == what[0] && regionEquals(data, from, what.length, what))
+                return from;
+        return -1;
+    }
+
+    private static int indexOf(final byte[] data, int from, final int length, final byte what) {
+        for (; from < length; ++from)
+            if (data[from] == what)
+                return from;
+        return -1;
+    }
+
+    //endregion
+
+    //region Event information
+
+    @Override
+    public int getEventType() {
+        return mType;
+    }
+
+    @Override
+    public int getDepth() {
+        return mPendingEndTag ? mDepth : (mType == END_TAG ? mDepth + 1 : mDepth);
+    }
+
+    @Override
+    public String getPositionDescription() {
+        return TYPES[mType] + " @" + mPos;
+    }
+
+    @Override
+    public int getLineNumber() {
+        return -1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    @Override
+    public boolean isWhitespace() throws XmlPullParserException {
+        if (mType != TEXT)
+            throw error("Not on a TEXT event");
+
+        for (int i = 0; i < mText.length(); ++i)
+            if (mText.charAt(i) > ' ')
+                return false;
+        return true;
+    }
+
+    @Override
+    public String getText() {
+        return mType == TEXT ? mText : null;
+    }
+
+    @Override
+    public char[] getTextCharacters(int[] holderForStartAndLength) {
+        final String text = getText();
+        if (text == null) {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+        holderForStartAndLength[0] = 0;
+        holderForStartAndLength[1] = text.length();
+        return text.toCharArray();
+    }
+
+    @Override
+    public String getName() {
+        return mType == START_TAG || mType == END_TAG ? mName : null;
+    }
+
+    @Override
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        if (mType != START_TAG)
+            throw error("Not on a START_TAG event");
+        return mPendingEndTag;
+    }
+
+    //endregion
+
+    //region Attributes
+
+    @Override
+    public int getAttributeCount() {
+        return mType == START_TAG ? mAttrCount : -1;
+    }
+
+    @Override
+    public String getAttributeName(int index) {
+        checkAttributeIndex(index);
+        return mAttrNames[index];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        checkAttributeIndex(index);
+        return mAttrValues[index];
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name) {
+        if (mType != START_TAG)
+            return null;
+
+        for (int i = 0; i < mAttrCount; ++i)
+            if (mAttrNames[i].equals(name) && (namespace == null || namespace.isEmpty()))
+                return mAttrValues[i];
+        return null;
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        checkAttributeIndex(index);
+        return "";
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        checkAttributeIndex(index);
+        return null;
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        checkAttributeIndex(index);
+        return "CDATA";
+    }
+
+    @Override
+    public boolean isAttributeDefault(int index) {
+        checkAttributeIndex(index);
+        return false;
+    }
+
+    private void checkAttributeIndex(int index) {
+        if (mType != START_TAG || index < 0 || index >= mAttrCount)
+            throw new IndexOutOfBoundsException("Invalid attribute index " + index);
+    }
+
+    //endregion
+
+    //region Namespaces (not processed)
+
+    @Override
+    public int getNamespaceCount(int depth) {
+        return 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int pos) throws XmlPullParserException {
+        throw error("Namespaces are not processed");
+    }
+
+    @Override
+    public String getNamespaceUri(int pos) throws XmlPullParserException {
+        throw error("Namespaces are not processed");
+    }
+
+    @Override
+    public String getNamespace(String prefix) {
+        return null;
+    }
+
+    @Override
+    public String getNamespace() {
+        return mType == START_TAG || mType == END_TAG ? "" : null;
+    }
+
+    @Override
+    public String getPrefix() {
+        return null;
+    }
+
+    //endregion
+}
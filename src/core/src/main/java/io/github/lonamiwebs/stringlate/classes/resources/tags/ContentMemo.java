@@ -0,0 +1,113 @@
+package io.github.lonamiwebs.stringlate.classes.resources.tags;
+
+// Bounded cache of the result of (de)sanitizing the content of the strings, since most of
+// them don't change in between saves or exports, so they would be converted the same way
+// over and over (see ResTag.sanitizeContent and ResTag.desanitizeContent).
+//
+// Every content can only be in either of a pair of slots, chosen by its hash, so the cache
+// never grows beyond its capacity, and newer content simply replaces the older on the pair.
+// The characters kept by all the entries are counted too, and once they would go over the
+// given budget, the cache is emptied and starts over, so long strings can't fill the memory.
+//
+// Looking up can be done from any thread without locking: the entries are immutable, so a
+// thread either sees one of them whole or doesn't see it at all, which only means a miss.
+// Storing them is synchronized, so that the characters kept are always counted right.
+public final class ContentMemo {
+
+    //region Members
+
+    // Longer content is converted every time, rather than being kept in memory
+    private static final int MAX_CONTENT_LENGTH = 1024;
+
+    private final Entry[] mEntries;
+    private final int mMaxChars;
+    private int mChars;
+
+    private static final class Entry {
+        final String content;
+        final String result;
+        final int chars;
+
+        Entry(final String content, final String result) {
+            this.content = content;
+            this.result = result;
+
+            // The result is often the very same content, when there was nothing to convert
+            chars = content.length() + (result == content ? 0 : result.length());
+        }
+
+        // The same instance is often converted again, so that's checked first
+        boolean matches(final String other) {
+            return content == other || content.equals(other);
+        }
+    }
+
+    //endregion
+
+    //region Constructors
+
+    // The capacity is rounded up to a power of two (and at least two). The maximum
+    // characters are those of the content and the results kept, all entries together
+    ContentMemo(final int capacity, final int maxChars) {
+        int size = 2;
+        while (size < capacity)
+            size <<= 1;
+        mEntries = new Entry[size];
+        mMaxChars = maxChars;
+    }
+
+    //endregion
+
+    //region Caching
+
+    // Returns the result remembered for the given content, or null if there's none
+    String get(final String content) {
+        if (content.length() > MAX_CONTENT_LENGTH)
+            return null;
+
+        final int slot = slot(content);
+        Entry entry = mEntries[slot];
+        if (entry == null || !entry.matches(content))
+            entry = mEntries[slot ^ 1];
+
+        return entry != null && entry.matches(content) ? entry.result : null;
+    }
+
+    // The newest entry goes first on its pair of slots, and the older one is moved second
+    synchronized void put(final String content, final String result) {
+        if (content.length() > MAX_CONTENT_LENGTH)
+            return;
+
+        final Entry entry = new Entry(content, result);
+        final int slot = slot(content);
+        final Entry old = mEntries[slot];
+        final Entry dropped;
+        if (old != null && !old.matches(content)) {
+            dropped = mEntries[slot ^ 1];
+            mEntries[slot ^ 1] = old;
+        } else {
+            dropped = old;
+        }
+
+        mChars += entry.chars - (dropped == null ? 0 : dropped.chars);
+        if (mChars > mMaxChars) {
+            clear();
+            mChars = entry.chars;
+        }
+        mEntries[slot] = entry;
+    }
+
+    private int slot(final String content) {
+        final int h = content.hashCode();
+        return (h ^ (h >>> 16)) & (mEntries.length - 1);
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mEntries.length; ++i)
+            mEntries[i] = null;
+
+        mChars = 0;
+    }
+
+    //endregion
+}
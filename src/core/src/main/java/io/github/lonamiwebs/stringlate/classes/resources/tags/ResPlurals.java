@@ -1,23 +1,38 @@
 package io.github.lonamiwebs.stringlate.classes.resources.tags;
 
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+
+import io.github.lonamiwebs.stringlate.classes.resources.SymbolTable;
 
 public class ResPlurals {
 
     //region Members
 
-    private final HashSet<Item> mItems;
+    // The quantities defined by CLDR, which are the only ones Android knows about.
+    // Each of them has its own slot, and anything else is kept on a separate map.
+    private static final String[] QUANTITIES = {"zero", "one", "two", "few", "many", "other"};
+
+    private final Item[] mItems;
+    private LinkedHashMap<String, Item> mOtherItems;
     private final String mId;
+    private final SymbolTable mSymbols; // Used to share the IDs of the items, may be null
 
     //endregion
 
     //region Constructor
 
     public ResPlurals(final String id) {
+        this(id, null);
+    }
+
+    public ResPlurals(final String id, final SymbolTable symbols) {
         if (id == null)
             throw new IllegalArgumentException();
-        mItems = new HashSet<>();
+        mItems = new Item[QUANTITIES.length];
         mId = id;
+        mSymbols = symbols;
     }
 
     //endregion
@@ -32,21 +47,62 @@ public class ResPlurals {
         if (quantity == null)
             throw new IllegalArgumentException();
 
-        for (Item i : mItems)
-            if (i.mQuantity.equals(quantity))
-                return i;
-        return null;
+        final int slot = getSlot(quantity);
+        if (slot >= 0)
+            return mItems[slot];
+
+        return mOtherItems == null ? null : mOtherItems.get(quantity);
+    }
+
+    private static int getSlot(final String quantity) {
+        switch (quantity) {
+            case "zero":
+                return 0;
+            case "one":
+                return 1;
+            case "two":
+                return 2;
+            case "few":
+                return 3;
+            case "many":
+                return 4;
+            case "other":
+                return 5;
+            default:
+                return -1;
+        }
     }
 
+    // ':' is not a valid separator for the <string>'s, so use it to avoid conflicts
+    public static String getItemId(final String parentId, final String quantity) {
+        return parentId + ':' + quantity;
+    }
+
+    // The CLDR quantities are iterated first, in their natural order
     public Iterable<Item> expand() {
-        return mItems;
+        return new Iterable<Item>() {
+            @Override
+            public Iterator<Item> iterator() {
+                return new ItemIterator();
+            }
+        };
     }
 
     private ResPlurals fakeClone() {
         // We're losing the original items… But this is the desired behaviour
         // because when setting the content for a new translation for the first
         // time, we need it to be a new parent
-        return new ResPlurals(mId);
+        return new ResPlurals(mId, mSymbols);
+    }
+
+    // Returns a new parent with a copy of every item, so that either can be modified
+    // without affecting the other (the items can't be shared, since they know their parent)
+    public ResPlurals copy() {
+        final ResPlurals result = fakeClone();
+        for (Item item : expand())
+            item.copyContentTo(result.addItem(item.mQuantity, "", false));
+
+        return result;
     }
 
     //endregion
@@ -55,7 +111,14 @@ public class ResPlurals {
 
     public Item addItem(final String quantity, final String content, final boolean modified) {
         Item result = new Item(this, quantity, content, modified);
-        mItems.add(result);
+        final int slot = getSlot(quantity);
+        if (slot >= 0) {
+            mItems[slot] = result;
+        } else {
+            if (mOtherItems == null)
+                mOtherItems = new LinkedHashMap<>();
+            mOtherItems.put(quantity, result);
+        }
         return result;
     }
 
@@ -63,9 +126,48 @@ public class ResPlurals {
 
     //region Sub classes
 
+    private class ItemIterator implements Iterator<Item> {
+        private int mNext = -1; // Slot on mItems of the next item to be returned
+        private final Iterator<Item> mOther;
+
+        ItemIterator() {
+            mOther = mOtherItems == null ? null : mOtherItems.values().iterator();
+            advance();
+        }
+
+        private void advance() {
+            do {
+                mNext++;
+            } while (mNext < mItems.length && mItems[mNext] == null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext < mItems.length || (mOther != null && mOther.hasNext());
+        }
+
+        @Override
+        public Item next() {
+            if (mNext < mItems.length) {
+                final Item result = mItems[mNext];
+                advance();
+                return result;
+            }
+            if (mOther == null)
+                throw new NoSuchElementException();
+            return mOther.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     public class Item extends ResTag {
         final ResPlurals mParent;
         final String mQuantity;
+        private final String mItemId; // Built once, since it's used as the key everywhere
 
         Item(final ResPlurals parent, final String quantity, final String content,
              final boolean modified) {
@@ -73,20 +175,21 @@ public class ResPlurals {
                 throw new IllegalArgumentException("Some of the arguments were null");
             mParent = parent;
             mQuantity = quantity;
+            final String id = getItemId(parent.mId, quantity);
+            mItemId = parent.mSymbols == null ? id : parent.mSymbols.intern(id);
             mContent = content.trim();
             mModified = modified;
         }
 
         @Override
         public String getId() {
-            // ':' is not a valid separator for the <string>'s, so use it to avoid conflicts
-            return String.format("%s:%s", mParent.mId, mQuantity);
+            return mItemId;
         }
 
         @Override
         public ResTag clone(String newContent) {
             ResPlurals parent = mParent.fakeClone();
-            Item result = parent.addItem(mQuantity, mContent, mModified);
+            Item result = parent.addItem(mQuantity, getContent(), mModified);
             result.setContent(newContent);
             return result;
         }
@@ -29,10 +29,17 @@ public class ResString extends ResTag {
 
     @Override
     public ResTag clone(String newContent) {
-        ResString result = new ResString(mId, mContent, mModified);
+        ResString result = new ResString(mId, getContent(), mModified);
         result.setContent(newContent);
         return result;
     }
 
+    // Returns an identical tag, so that either can be modified without affecting the other
+    public ResString copy() {
+        ResString result = new ResString(mId, "", mModified);
+        copyContentTo(result);
+        return result;
+    }
+
     //endregion
 }
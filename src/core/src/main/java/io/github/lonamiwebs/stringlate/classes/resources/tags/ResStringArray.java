@@ -1,24 +1,41 @@
 package io.github.lonamiwebs.stringlate.classes.resources.tags;
 
-import java.util.HashSet;
-import java.util.Locale;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import io.github.lonamiwebs.stringlate.classes.resources.SymbolTable;
 
 public class ResStringArray {
 
     //region Members
 
-    private final HashSet<Item> mItems;
+    // Items are addressed by their index, although some of them may be missing.
+    // Indices which are way past the end of the array go to a sorted map instead,
+    // so a single weird index can't make us allocate a huge array.
+    private static final int MAX_SPARSE_GAP = 64;
+
+    private Item[] mItems;
+    private TreeMap<Integer, Item> mSparseItems;
+    private int mCount;
     private final String mId;
+    private final SymbolTable mSymbols; // Used to share the IDs of the items, may be null
 
     //endregion
 
     //region Constructor
 
     public ResStringArray(final String id) {
+        this(id, null);
+    }
+
+    public ResStringArray(final String id, final SymbolTable symbols) {
         if (id == null)
             throw new IllegalArgumentException();
-        mItems = new HashSet<>();
+        mItems = new Item[4];
         mId = id;
+        mSymbols = symbols;
     }
 
     //endregion
@@ -30,22 +47,50 @@ public class ResStringArray {
     }
 
     public Item getItem(final int i) {
-        for (Item item : mItems)
-            if (item.getIndex() == i)
-                return item;
+        if (i < 0)
+            return null;
+        if (i < mItems.length)
+            return mItems[i];
 
-        return null;
+        return mSparseItems == null ? null : mSparseItems.get(i);
     }
 
+    public int count() {
+        return mCount;
+    }
+
+    // ':' is not a valid separator for the <string>'s, so use it to avoid conflicts
+    public static String getItemId(final String parentId, final int index) {
+        return parentId + ':' + index;
+    }
+
+    // The items are iterated in the order of their index
     public Iterable<Item> expand() {
-        return mItems;
+        return new Iterable<Item>() {
+            @Override
+            public Iterator<Item> iterator() {
+                return new ItemIterator();
+            }
+        };
     }
 
     private ResStringArray fakeClone() {
         // We're losing the original items… But this is the desired behaviour
         // because when setting the content for a new translation for the first
         // time, we need it to be a new parent
-        return new ResStringArray(mId);
+        return new ResStringArray(mId, mSymbols);
+    }
+
+    // Returns a new parent with a copy of every item, so that either can be modified
+    // without affecting the other (the items can't be shared, since they know their parent)
+    public ResStringArray copy() {
+        final ResStringArray result = fakeClone();
+        for (Item item : expand()) {
+            final Item copy = new Item(result, item.mIndex, "", false);
+            item.copyContentTo(copy);
+            result.putItem(copy);
+        }
+        return result;
     }
 
     //endregion
@@ -55,19 +100,92 @@ public class ResStringArray {
     public Item addItem(final String content, final boolean modified, final int index) {
         if (content == null)
             throw new IllegalArgumentException();
-        int i = index < 0 ? mItems.size() : index; // Auto-detect index if -1 (negative)
+        int i = index < 0 ? mCount : index; // Auto-detect index if -1 (negative)
         Item result = new Item(this, i, content, modified);
-        mItems.add(result);
+        putItem(result);
         return result;
     }
 
+    // Puts the item on its index, replacing any previous item with the same index
+    private void putItem(final Item item) {
+        final int i = item.mIndex;
+        if (i >= mItems.length) {
+            if (i - mItems.length > MAX_SPARSE_GAP) {
+                if (mSparseItems == null)
+                    mSparseItems = new TreeMap<>();
+                if (mSparseItems.put(i, item) == null)
+                    mCount++;
+                return;
+            }
+            grow(i + 1);
+        }
+        if (mItems[i] == null)
+            mCount++;
+        mItems[i] = item;
+    }
+
+    private void grow(final int minLength) {
+        final Item[] items = new Item[Math.max(minLength, mItems.length * 2)];
+        System.arraycopy(mItems, 0, items, 0, mItems.length);
+        mItems = items;
+
+        // The sparse items which now fit in the array must be moved there
+        if (mSparseItems != null) {
+            while (!mSparseItems.isEmpty() && mSparseItems.firstKey() < mItems.length) {
+                final Map.Entry<Integer, Item> entry = mSparseItems.pollFirstEntry();
+                mItems[entry.getKey()] = entry.getValue();
+            }
+            if (mSparseItems.isEmpty())
+                mSparseItems = null;
+        }
+    }
+
     //endregion
 
     //region Sub classes
 
+    private class ItemIterator implements Iterator<Item> {
+        private int mNext = -1; // Index on mItems of the next item to be returned
+        private final Iterator<Item> mSparse;
+
+        ItemIterator() {
+            mSparse = mSparseItems == null ? null : mSparseItems.values().iterator();
+            advance();
+        }
+
+        private void advance() {
+            do {
+                mNext++;
+            } while (mNext < mItems.length && mItems[mNext] == null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext < mItems.length || (mSparse != null && mSparse.hasNext());
+        }
+
+        @Override
+        public Item next() {
+            if (mNext < mItems.length) {
+                final Item result = mItems[mNext];
+                advance();
+                return result;
+            }
+            if (mSparse == null)
+                throw new NoSuchElementException();
+            return mSparse.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     public class Item extends ResTag {
         final ResStringArray mParent;
         final int mIndex;
+        private final String mItemId; // Built once, since it's used as the key everywhere
 
         Item(final ResStringArray parent,
              final int index, String content, final boolean modified) {
@@ -75,14 +193,15 @@ public class ResStringArray {
                 throw new IllegalArgumentException();
             mParent = parent;
             mIndex = index;
+            final String id = getItemId(parent.mId, index);
+            mItemId = parent.mSymbols == null ? id : parent.mSymbols.intern(id);
             mContent = content.trim();
             mModified = modified;
         }
 
         @Override
         public String getId() {
-            // ':' is not a valid separator for the <string>'s, so use it to avoid conflicts
-            return String.format(Locale.ENGLISH, "%s:%d", mParent.mId, mIndex);
+            return mItemId;
         }
 
         public int getIndex() {
@@ -92,7 +211,7 @@ public class ResStringArray {
         @Override
         public ResTag clone(String newContent) {
             ResStringArray parent = mParent.fakeClone();
-            Item result = parent.addItem(mContent, mModified, mIndex);
+            Item result = parent.addItem(getContent(), mModified, mIndex);
             result.setContent(newContent);
             return result;
         }
@@ -17,12 +17,24 @@ public abstract class ResTag implements Comparable<ResTag> {
             'U', 'B', 'T', 'N', 'F', 'R'
     };
 
+    // Remembers the last results of (de)sanitizing the content of the strings,
+    // keeping up to about 512KB of characters each
+    private static final int MEMO_CAPACITY = 8192;
+    private static final int MEMO_MAX_CHARS = 256 * 1024;
+    private static final ContentMemo sSanitized = new ContentMemo(MEMO_CAPACITY, MEMO_MAX_CHARS);
+    private static final ContentMemo sDesanitized = new ContentMemo(MEMO_CAPACITY, MEMO_MAX_CHARS);
+
     //endregion
 
     //region Members
 
     String mContent = "";
 
+    // Tags loaded lazily don't keep their content in memory. Instead, it's read
+    // from the source every time until it changes, at which point it's kept here
+    private ContentSource mContentSource;
+    private int mContentHandle;
+
     // "metadata" used to keep track whether a string is the original or not. This
     // will be later used when downloading remote changes, to keep local if modified.
     boolean mModified;
@@ -39,15 +51,16 @@ public abstract class ResTag implements Comparable<ResTag> {
     }
 
     public String getContent() {
-        return mContent;
+        return mContentSource == null ? mContent : mContentSource.getContent(mContentHandle);
     }
 
     public int getContentLength() {
-        return mContent.length();
+        return mContentSource == null ?
+                mContent.length() : mContentSource.getContentLength(mContentHandle);
     }
 
     public boolean hasContent() {
-        return !mContent.isEmpty();
+        return getContentLength() != 0;
     }
 
     public boolean wasModified() {
@@ -63,8 +76,9 @@ public abstract class ResTag implements Comparable<ResTag> {
     // Returns true if the content was successfully set
     public boolean setContent(String content) {
         content = content.trim();
-        if (!mContent.equals(content)) {
+        if (!getContent().equals(content)) {
             mContent = content;
+            mContentSource = null;
             mModified = true;
             return true;
         } else {
@@ -72,6 +86,21 @@ public abstract class ResTag implements Comparable<ResTag> {
         }
     }
 
+    // Used to load the content lazily. The source must return the content already trimmed
+    public void setContentSource(final ContentSource source, final int handle) {
+        mContentSource = source;
+        mContentHandle = handle;
+        mContent = null;
+    }
+
+    // Gives the other tag the same content as this one, without reading it if it's lazy
+    void copyContentTo(final ResTag other) {
+        other.mContent = mContent;
+        other.mContentSource = mContentSource;
+        other.mContentHandle = mContentHandle;
+        other.mModified = mModified;
+    }
+
     //endregion
 
     //region Interfaces implementation
@@ -85,6 +114,17 @@ public abstract class ResTag implements Comparable<ResTag> {
 
     //endregion
 
+    //region Lazy content
+
+    // Source for the content of the tags, where each content is identified by a handle
+    public interface ContentSource {
+        String getContent(int handle);
+
+        int getContentLength(int handle);
+    }
+
+    //endregion
+
     //region De/sanitize Content
 
     private static boolean isEscapeSequence(char which) {
@@ -118,8 +158,25 @@ public abstract class ResTag implements Comparable<ResTag> {
         return false;
     }
 
+    public static ContentMemo getSanitizeMemo() {
+        return sSanitized;
+    }
+
+    public static ContentMemo getDesanitizeMemo() {
+        return sDesanitized;
+    }
+
     // De-sanitizes the content, making it ready to modified outside a strings.xml file
-    public static String desanitizeContent(String content) {
+    public static String desanitizeContent(final String content) {
+        String result = sDesanitized.get(content);
+        if (result == null) {
+            result = doDesanitizeContent(content);
+            sDesanitized.put(content, result);
+        }
+        return result;
+    }
+
+    private static String doDesanitizeContent(String content) {
         char c;
         int length = content.length();
         StringBuilder sb = new StringBuilder(length + 16); // 16 seems to be the default capacity
@@ -190,28 +247,51 @@ public abstract class ResTag implements Comparable<ResTag> {
         return sb.toString();
     }
 
+    // Parses the content to determine whether it's valid XML or not. The scanner tells
+    // most of the time without doing this (see XmlContentScanner), but not always
+    private static boolean isWellFormedXml(final String content) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setValidating(false);
+            factory.setNamespaceAware(true);
+
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // Every XML needs to have a root tag, however, this is not the case for
+            // Android strings, and so we need to wrap it around some arbitrary tags
+            // in order to check whether the inner content is right or not.
+            builder.parse(new InputSource(new StringReader("<a>" + content + "</a>")));
+            return true;
+        } catch (Exception ignored) {
+            return false;
+        }
+    }
+
     // Sanitizes the content, making it ready to be written to a strings.xml file
-    public static String sanitizeContent(String content) {
+    public static String sanitizeContent(final String content) {
+        String result = sSanitized.get(content);
+        if (result == null) {
+            result = doSanitizeContent(content);
+            sSanitized.put(content, result);
+        }
+        return result;
+    }
+
+    private static String doSanitizeContent(String content) {
         char c;
         int length = content.length();
         StringBuilder sb = new StringBuilder(length + 16); // 16 seems to be the default capacity
 
+        // If the string contains (X|HT)ML tags, ensure it's valid XML. If it's not,
+        // then replace every <> with &lt; &gt; not to break the XML file
         boolean replaceLtGt = false;
-        if (content.contains("<")) {
-            // The string contains (X|HT)ML tags, ensure it's valid by parsing the content
-            // If it's not, then replace every <> with &lt; &gt; not to break the XML file
-            try {
-                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                factory.setValidating(false);
-                factory.setNamespaceAware(true);
-
-                DocumentBuilder builder = factory.newDocumentBuilder();
-                // Every XML needs to have a root tag, however, this is not the case for
-                // Android strings, and so we need to wrap it around some arbitrary tags
-                // in order to check whether the inner content is right or not.
-                builder.parse(new InputSource(new StringReader("<a>" + content + "</a>")));
-            } catch (Exception ignored) {
-                replaceLtGt = true;
+        if (content.indexOf('<') >= 0) {
+            switch (XmlContentScanner.scan(content)) {
+                case XmlContentScanner.MALFORMED:
+                    replaceLtGt = true;
+                    break;
+                case XmlContentScanner.UNSURE:
+                    replaceLtGt = !isWellFormedXml(content);
+                    break;
             }
         }
 
@@ -0,0 +1,388 @@
+package io.github.lonamiwebs.stringlate.classes.resources.tags;
+
+// Scanner used to tell whether the content of a string would be well-formed XML when put
+// inside a tag, as a namespace aware DOM parser would tell after parsing "<a>content</a>",
+// but without building any document or allocating anything (see ResTag.sanitizeContent).
+//
+// It checks that the characters are allowed, that the tags are balanced and their names
+// and attributes valid, that the prefixes of the names are bound (only "xml" is, since
+// the content has no namespace declarations), and that only the predefined entities are
+// referenced. Comments, CDATA sections and processing instructions are understood too.
+//
+// Anything less common, such as non-ASCII names or namespace declarations, is left to the
+// DOM parser, since telling them apart right would be a lot more work for little gain.
+final class XmlContentScanner {
+
+    //region Members
+
+    static final int WELL_FORMED = 0;
+    static final int MALFORMED = 1;
+    static final int UNSURE = 2;
+
+    // Returned by the scanning methods instead of the next position
+    private static final int FAIL = -1;
+    private static final int GIVE_UP = -2;
+
+    // Tags nested deeper than this are left to the DOM parser, rather than recursing more
+    private static final int MAX_DEPTH = 64;
+
+    //endregion
+
+    //region Constructors
+
+    private XmlContentScanner() {
+    }
+
+    //endregion
+
+    //region Scanning
+
+    static int scan(final String s) {
+        if (s.contains("xmlns"))
+            return UNSURE;
+
+        final int end = scanContent(s, 0, 0, 0, 0);
+        if (end == GIVE_UP)
+            return UNSURE;
+
+        return end == s.length() ? WELL_FORMED : MALFORMED;
+    }
+
+    // Scans the content of a tag, whose name is at [nameStart, nameEnd), until its end tag.
+    // The content of the outer tag is scanned until the end of the string instead (depth 0).
+    // Returns the position right after the end tag, or FAIL or GIVE_UP
+    private static int scanContent(final String s, int i, final int depth,
+                                   final int nameStart, final int nameEnd) {
+        if (depth > MAX_DEPTH)
+            return GIVE_UP;
+
+        final int length = s.length();
+        while (i < length) {
+            final char c = s.charAt(i);
+            if (c == '<') {
+                if (i + 1 == length)
+                    return FAIL;
+
+                final char next = s.charAt(i + 1);
+                if (next == '/') {
+                    // The end tag of the outer tag would close the wrapper early
+                    if (depth == 0)
+                        return FAIL;
+                    return scanEndTag(s, i + 2, nameStart, nameEnd);
+                } else if (next == '!') {
+                    if (s.startsWith("<!--", i))
+                        i = scanComment(s, i + 4);
+                    else if (s.startsWith("<![CDATA[", i))
+                        i = scanCData(s, i + 9);
+                    else
+                        return FAIL;
+                } else if (next == '?') {
+                    i = scanProcessingInstruction(s, i + 2);
+                } else {
+                    i = scanElement(s, i + 1, depth);
+                }
+            } else if (c == '&') {
+                i = scanReference(s, i + 1);
+            } else if (c == ']' && s.startsWith("]]>", i)) {
+                return FAIL;
+            } else {
+                i = skipChar(s, i);
+            }
+
+            if (i < 0)
+                return i;
+        }
+        // Tags left open would be closed by the wrapper's end tag, which doesn't match
+        return depth == 0 ? i : FAIL;
+    }
+
+    // Scans an element, from right after its '<'. Returns the position after it ends
+    private static int scanElement(final String s, final int start, final int depth) {
+        final int nameEnd = scanQName(s, start, false);
+        if (nameEnd < 0)
+            return nameEnd;
+
+        final int length = s.length();
+        int i = nameEnd;
+        while (true) {
+            final int afterSpace = skipSpace(s, i);
+            if (afterSpace == length)
+                return FAIL;
+
+            final char c = s.charAt(afterSpace);
+            if (c == '>')
+                return scanContent(s, afterSpace + 1, depth + 1, start, nameEnd);
+
+            if (c == '/')
+                return s.startsWith("/>", afterSpace) ? afterSpace + 2 : FAIL;
+
+            // Attributes must be separated by some space
+            if (afterSpace == i)
+                return FAIL;
+
+            i = scanAttribute(s, afterSpace, nameEnd);
+            if (i < 0)
+                return i;
+        }
+    }
+
+    // Scans an attribute of the tag whose name ends at tagNameEnd.
+    // Returns the position after its closing quote
+    private static int scanAttribute(final String s, final int start, final int tagNameEnd) {
+        final int nameEnd = scanQName(s, start, true);
+        if (nameEnd < 0)
+            return nameEnd;
+
+        if (isDuplicateAttribute(s, tagNameEnd, start, nameEnd))
+            return FAIL;
+
+        final int length = s.length();
+        int i = skipSpace(s, nameEnd);
+        if (i == length || s.charAt(i) != '=')
+            return FAIL;
+
+        i = skipSpace(s, i + 1);
+        if (i == length)
+            return FAIL;
+
+        final char quote = s.charAt(i++);
+        if (quote != '"' && quote != '\'')
+            return FAIL;
+
+        while (i < length) {
+            final char c = s.charAt(i);
+            if (c == quote)
+                return i + 1;
+            else if (c == '<')
+                return FAIL;
+            else if (c == '&')
+                i = scanReference(s, i + 1);
+            else
+                i = skipChar(s, i);
+
+            if (i < 0)
+                return i;
+        }
+        return FAIL;
+    }
+
+    // Determines whether any of the attributes before the one at [start, end) has its name.
+    // The attributes between the tag name and this one were already scanned, so they're valid
+    private static boolean isDuplicateAttribute(final String s, final int tagNameEnd,
+                                                final int start, final int end) {
+        int i = skipSpace(s, tagNameEnd);
+        while (i < start) {
+            int nameEnd = i;
+            while (s.charAt(nameEnd) != '=' && !isSpace(s.charAt(nameEnd)))
+                ++nameEnd;
+
+            if (nameEnd - i == end - start && s.regionMatches(i, s, start, end - start))
+                return true;
+
+            i = s.indexOf('=', nameEnd) + 1;
+            i = skipSpace(s, i);
+            i = s.indexOf(s.charAt(i), i + 1) + 1;
+            i = skipSpace(s, i);
+        }
+        return false;
+    }
+
+    // Scans an end tag, from right after its "</". Returns the position after its '>'
+    private static int scanEndTag(final String s, final int start,
+                                  final int nameStart, final int nameEnd) {
+        final int end = scanQName(s, start, false);
+        if (end < 0)
+            return end;
+
+        if (end - start != nameEnd - nameStart || !s.regionMatches(start, s, nameStart, end - start))
+            return FAIL;
+
+        final int i = skipSpace(s, end);
+        return i < s.length() && s.charAt(i) == '>' ? i + 1 : FAIL;
+    }
+
+    // Scans a comment, from right after its "<!--". Returns the position after its "-->"
+    private static int scanComment(final String s, int i) {
+        final int length = s.length();
+        while (i < length) {
+            if (s.startsWith("--", i))
+                return s.startsWith("-->", i) ? i + 3 : FAIL;
+
+            i = skipChar(s, i);
+            if (i < 0)
+                return i;
+        }
+        return FAIL;
+    }
+
+    // Scans a CDATA section, from right after its "<![CDATA[". Returns the position after "]]>"
+    private static int scanCData(final String s, int i) {
+        final int length = s.length();
+        while (i < length) {
+            if (s.startsWith("]]>", i))
+                return i + 3;
+
+            i = skipChar(s, i);
+            if (i < 0)
+                return i;
+        }
+        return FAIL;
+    }
+
+    // Scans a processing instruction, from right after its "<?". Returns the position after "?>"
+    private static int scanProcessingInstruction(final String s, final int start) {
+        final int targetEnd = scanName(s, start);
+        if (targetEnd < 0)
+            return targetEnd;
+
+        // Colons are not allowed in the targets when using namespaces
+        if (s.lastIndexOf(':', targetEnd - 1) >= start)
+            return GIVE_UP;
+
+        if (targetEnd - start == 3 && s.regionMatches(true, start, "xml", 0, 3))
+            return FAIL;
+
+        final int length = s.length();
+        int i = targetEnd;
+        if (s.startsWith("?>", i))
+            return i + 2;
+
+        if (i == length || !isSpace(s.charAt(i)))
+            return FAIL;
+
+        while (i < length) {
+            if (s.startsWith("?>", i))
+                return i + 2;
+
+            i = skipChar(s, i);
+            if (i < 0)
+                return i;
+        }
+        return FAIL;
+    }
+
+    // Scans a character or entity reference, from right after its '&'. Returns the
+    // position after its ';'. Only the predefined entities can be referenced
+    private static int scanReference(final String s, final int start) {
+        final int length = s.length();
+        if (start < length && s.charAt(start) == '#') {
+            int i = start + 1;
+            final boolean hex = i < length && s.charAt(i) == 'x';
+            if (hex)
+                ++i;
+
+            final int digitsStart = i;
+            int value = 0;
+            for (; i < length; ++i) {
+                final int digit = Character.digit(s.charAt(i), hex ? 16 : 10);
+                if (digit < 0 || s.charAt(i) > 'f')
+                    break;
+
+                // Anything bigger is not a character anyway, so stop growing
+                value = Math.min(value * (hex ? 16 : 10) + digit, 0x110000);
+            }
+            if (i == digitsStart || i == length || s.charAt(i) != ';' || !isXmlChar(value))
+                return FAIL;
+
+            return i + 1;
+        }
+
+        final int end = scanName(s, start);
+        if (end < 0)
+            return end;
+
+        if (end == length || s.charAt(end) != ';')
+            return FAIL;
+
+        return isPredefinedEntity(s, start, end) ? end + 1 : FAIL;
+    }
+
+    private static boolean isPredefinedEntity(final String s, final int start, final int end) {
+        switch (end - start) {
+            case 2:
+                return s.startsWith("lt", start) || s.startsWith("gt", start);
+            case 3:
+                return s.startsWith("amp", start);
+            case 4:
+                return s.startsWith("apos", start) || s.startsWith("quot", start);
+            default:
+                return false;
+        }
+    }
+
+    //endregion
+
+    //region Names and characters
+
+    // Scans a qualified name (of a tag or an attribute) and checks its prefix is bound.
+    // Returns the position right after it
+    private static int scanQName(final String s, final int start, final boolean attribute) {
+        final int end = scanName(s, start);
+        if (end < 0)
+            return end;
+
+        final int colon = s.indexOf(':', start);
+        if (colon < 0 || colon >= end)
+            return end;
+
+        // Empty parts or more than one colon are not valid qualified names
+        if (colon == start || colon == end - 1 || s.indexOf(':', colon + 1) < end)
+            return GIVE_UP;
+
+        // There are no namespace declarations, so only "xml" is bound
+        return colon - start == 3 && s.startsWith("xml", start) ? end : FAIL;
+    }
+
+    // Scans a name, only made up of ASCII characters. Returns the position right after it
+    private static int scanName(final String s, final int start) {
+        final int length = s.length();
+        if (start == length)
+            return FAIL;
+
+        char c = s.charAt(start);
+        if (c >= 0x80)
+            return GIVE_UP;
+        if (!isNameStartChar(c))
+            return FAIL;
+
+        int i = start + 1;
+        for (; i < length; ++i) {
+            c = s.charAt(i);
+            if (c >= 0x80)
+                return GIVE_UP;
+            if (!isNameStartChar(c) && !(c >= '0' && c <= '9') && c != '-' && c != '.')
+                break;
+        }
+        return i;
+    }
+
+    private static boolean isNameStartChar(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':';
+    }
+
+    private static boolean isSpace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static int skipSpace(final String s, int i) {
+        while (i < s.length() && isSpace(s.charAt(i)))
+            ++i;
+        return i;
+    }
+
+    // Returns the position after the character at i, or FAIL if XML doesn't allow it
+    private static int skipChar(final String s, final int i) {
+        final char c = s.charAt(i);
+        if (Character.isHighSurrogate(c))
+            return i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)) ? i + 2 : FAIL;
+
+        return isXmlChar(c) ? i + 1 : FAIL;
+    }
+
+    private static boolean isXmlChar(final int c) {
+        return (c >= 0x20 && c <= 0xD7FF) || c == 0x9 || c == 0xA || c == 0xD ||
+                (c >= 0xE000 && c <= 0xFFFD) || (c >= 0x10000 && c <= 0x10FFFF);
+    }
+
+    //endregion
+}
@@ -13,7 +13,6 @@ import io.github.lonamiwebs.stringlate.classes.Messenger;
 import io.github.lonamiwebs.stringlate.classes.git.GitCloneProgressCallback;
 import io.github.lonamiwebs.stringlate.classes.git.GitWrapper;
 import io.github.lonamiwebs.stringlate.classes.resources.Resources;
-import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
 import io.github.lonamiwebs.stringlate.interfaces.StringsSource;
 
 public class GitSource implements StringsSource {
@@ -122,12 +121,7 @@ public class GitSource implements StringsSource {
 
     @Override
     public Resources getResources(final String locale) {
-        final Resources result = Resources.empty();
-        for (File file : mLocaleFiles.get(locale)) {
-            for (ResTag rt : Resources.fromFile(file))
-                result.addTag(rt);
-        }
-        return result;
+        return Resources.fromFiles(mLocaleFiles.get(locale));
     }
 
     @Override
@@ -0,0 +1,16 @@
+package io.github.lonamiwebs.stringlate.interfaces;
+
+// Interface used to stream the tags found on a strings.xml file as they are
+// being parsed, without ever building a Resources object to hold all of them.
+// The IDs given are already marked by their type (see ResType.markID).
+public interface ResourcesVisitor {
+    void onString(String id, String content, boolean modified);
+
+    // The index is always known, even if the <item> didn't specify it
+    void onArrayItem(String arrayId, int index, String content, boolean modified);
+
+    void onPluralItem(String pluralsId, String quantity, String content, boolean modified);
+
+    // Called once the whole file has been visited successfully
+    void onEnd();
+}
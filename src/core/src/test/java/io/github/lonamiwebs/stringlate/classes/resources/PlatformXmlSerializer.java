@@ -0,0 +1,89 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.kxml2.io.KXmlSerializer;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// The XmlSerializer Android provides is its own patched copy of the KXmlSerializer,
+// which escapes text and attributes differently than kxml2 does: '@' is left as-is,
+// characters outside the BMP are written as character references, and characters
+// not allowed in XML are refused. This reproduces that on top of kxml2 for the tests.
+class PlatformXmlSerializer extends KXmlSerializer {
+
+    private Writer mWriter;
+
+    @Override
+    public void setOutput(final Writer writer) {
+        super.setOutput(writer);
+        mWriter = writer;
+    }
+
+    @Override
+    public XmlSerializer text(final String text) throws IOException {
+        // Closes the start tag if it was still open
+        super.text("");
+        writeEscaped(text, -1);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer attribute(final String namespace, final String name, final String value)
+            throws IOException {
+        if (namespace != null)
+            throw new IllegalArgumentException("Namespaces are not used on the tests");
+
+        // The start tag is still open, so the attribute is written right after it
+        final char quote = value.indexOf('"') == -1 ? '"' : '\'';
+        mWriter.write(' ');
+        mWriter.write(name);
+        mWriter.write('=');
+        mWriter.write(quote);
+        writeEscaped(value, quote);
+        mWriter.write(quote);
+        return this;
+    }
+
+    private void writeEscaped(final String s, final int quote) throws IOException {
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '\n':
+                case '\r':
+                case '\t':
+                    if (quote == -1)
+                        mWriter.write(c);
+                    else
+                        mWriter.write("&#" + (int) c + ';');
+                    break;
+                case '&':
+                    mWriter.write("&amp;");
+                    break;
+                case '>':
+                    mWriter.write("&gt;");
+                    break;
+                case '<':
+                    mWriter.write("&lt;");
+                    break;
+                default:
+                    if (c == quote) {
+                        mWriter.write(c == '"' ? "&quot;" : "&apos;");
+                    } else if ((c >= 0x20 && c <= 0xd7ff) || (c >= 0xe000 && c <= 0xfffd)) {
+                        mWriter.write(c);
+                    } else if (Character.isHighSurrogate(c) && i + 1 < s.length()) {
+                        final char low = s.charAt(++i);
+                        if (!Character.isLowSurrogate(low))
+                            throw new IllegalArgumentException("Bad surrogate pair (U+" +
+                                    Integer.toHexString(c) + " U+" + Integer.toHexString(low) + ")");
+
+                        mWriter.write("&#" + Character.toCodePoint(c, low) + ";");
+                    } else {
+                        throw new IllegalArgumentException(
+                                "Illegal character (U+" + Integer.toHexString(c) + ")");
+                    }
+                    break;
+            }
+        }
+    }
+}
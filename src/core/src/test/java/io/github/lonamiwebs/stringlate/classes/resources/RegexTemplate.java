@@ -0,0 +1,357 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResPlurals;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResStringArray;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResType;
+
+// This is how ResourcesParser used to apply templates and clean the XML of the default
+// resources, with regular expressions, before TemplateScanner and TemplatePlan existed.
+// The only change is that UTF-8 is used explicitly rather than the default charset,
+// which is what these used to get on Android.
+class RegexTemplate {
+
+    private final static String ID = "name";
+    private final static String QUANTITY = "quantity";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Not every application uses the official "translatable" name
+    private final static String[] TRANSLATABLE = {
+            "translatable", "translate", "translateable"
+    };
+
+    //region Xml -> Xml without untranslatable strings
+
+    static boolean cleanXml(final String xml, final File outFile) {
+        try {
+            boolean haveAny = false;
+
+            // 1. Find dirty tags (those which are untranslatable)
+            Queue<DirtyRange> dirtyRanges = new LinkedList<>();
+
+            Matcher mTag = RES_TAG_PATTERN.matcher(xml);
+            while (mTag.find()) {
+                String translatable = getAttr(mTag.group(2), TRANSLATABLE);
+                if (translatable.equals("false")) {
+                    // Decrease the range by 1 not to eat up the next character (due to the i++)
+                    dirtyRanges.add(new DirtyRange(mTag.start(), mTag.end() - 1));
+                } else {
+                    // This file contains at least one translatable string
+                    haveAny = true;
+                }
+            }
+
+            // TODO The rest of code is copied from cleanMissingStrings I only change one part…
+            // There are no translatable strings, so do nothing (and don't create any file)
+            if (!haveAny)
+                return false;
+
+            // There is at least one translatable string, so we need to clean the xml
+            if (!outFile.getParentFile().isDirectory())
+                outFile.getParentFile().mkdirs();
+
+            FileOutputStream out = new FileOutputStream(outFile);
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+
+            // We might want to early terminate if all strings are translatable
+            if (dirtyRanges.isEmpty()) {
+                // Simply copy the file, there's nothing to clean
+                writer.write(xml);
+                writer.close();
+                return true;
+            }
+
+            removeDirtyRanges(xml, dirtyRanges, out);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    //endregion
+
+    //region Using another file as a template
+
+    //region Applying the template
+
+    // This will match either <string>, <string-array>, <plurals> or <item> from start to end.
+    // It will also match the attributes (attribute_a="value" attribute_b="value") and the content.
+    private static Pattern RES_TAG_PATTERN = Pattern.compile(
+            "<(string(?:-array)?|plurals|item)((?:\\s+\\w+\\s*=\\s*\"\\w+\")*)\\s*>([\\S\\s]*?)(?:</\\s*\\1\\s*>)");
+
+    // This should be matched against the .group(2) from the above pattern
+    private static Pattern ATTRIBUTE_PATTERN = Pattern.compile("(\\w+)\\s*=\\s*\"(\\w+)\"");
+
+    //region Actual code
+
+    private static class DirtyRange {
+        final int start, end;
+
+        DirtyRange(int s, int e) {
+            start = s;
+            end = e;
+        }
+    }
+
+    // Replacement holder - on the original xml (the "template")
+    // there will exist several of these to indicate where the
+    // replacements should be made
+    private static class ReplaceHolder {
+        final int start, end;
+        final String replacement;
+
+        ReplaceHolder(int start, int end, String replacement) {
+            this.start = start;
+            this.end = end;
+            this.replacement = replacement;
+        }
+    }
+
+    private static String getAttr(String attrs, String... attrNames) {
+        Matcher m = ATTRIBUTE_PATTERN.matcher(attrs);
+        while (m.find()) {
+            for (String attrName : attrNames) {
+                if (m.group(1).equals(attrName)) {
+                    return m.group(2);
+                }
+            }
+        }
+        return "";
+    }
+
+    private static boolean isWhitespace(String string) {
+        for (int i = 0; i < string.length(); i++)
+            if (!Character.isWhitespace(string.charAt(i)))
+                return false;
+        return true;
+    }
+
+    // Will return an empty string if there is no available translation
+    private static String cleanMissingStrings(String xml, Resources resources) {
+        // TODO Ignore "<!-- <string name="missing">value</string> -->" comments?
+        // Maybe scan for comments and if a match is found inside a comment… Discard it?
+        // Or maybe it's just over complication.
+        boolean haveAny = false;
+
+        // 1. Find dirty tags (those which we have no translation for)
+        Queue<DirtyRange> dirtyRanges = new LinkedList<>();
+
+        Matcher mTag = RES_TAG_PATTERN.matcher(xml);
+        while (mTag.find()) {
+            String id = getAttr(mTag.group(2), ID);
+            if (resources.contains(id)) {
+                // This file contains at least one translation
+                haveAny = true;
+            } else {
+                // We don't have a translation, so this tag is dirty. Decrease
+                // the range by 1 not to eat up the next character (due to the i++)
+                dirtyRanges.add(new DirtyRange(mTag.start(), mTag.end() - 1));
+            }
+        }
+
+        // There is no string we have a translation for, so return an empty string
+        if (!haveAny)
+            return "";
+
+        // We might want to early terminate if we have a translation for all the strings
+        if (dirtyRanges.isEmpty())
+            return xml;
+
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+            // 2. Remove the dirty tags and mark those lines as dirty too
+            removeDirtyRanges(xml, dirtyRanges, output);
+
+            // Return the clean xml
+            return new String(output.toByteArray(), UTF_8);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
+
+    // This assumes a clean xml, i.e., we have a translation for all the strings in it
+    // Returns TRUE if there were no errors
+    private static boolean writeReplaceStrings(String xml, Resources resources, OutputStream out) {
+        // Match on the original xml to determine where replacements will be made
+        Matcher mTag = RES_TAG_PATTERN.matcher(xml);
+
+        // Matches will be in order, so use a queue (first in, first out)
+        Queue<ReplaceHolder> holders = new LinkedList<>();
+        while (mTag.find()) {
+            int contentStart = mTag.start(3);
+            int contentEnd = contentStart + mTag.group(3).length();
+
+            String id = getAttr(mTag.group(2), ID);
+            if (id.isEmpty())
+                continue;
+
+            // Should never fail - plus do we even care it's empty? No resource would be found
+            // Also, we obviously have this string translated (xml was cleaned, right?),
+            // thus there is no need to ensure whether we need to delete the line or not
+            ResType type = ResType.fromTagName(mTag.group(1));
+            ResTag tag = resources.getTag(type.markID(id));
+            Matcher mItem;
+            switch (type) {
+                case STRING:
+                    holders.add(new ReplaceHolder(contentStart, contentEnd,
+                            tag.getContent() == null ? "" : tag.getContent()));
+                    break;
+                case STRING_ARRAY:
+                    ResStringArray array = ((ResStringArray.Item) tag).getParent();
+                    int i = 0;
+                    mItem = RES_TAG_PATTERN.matcher(mTag.group(3));
+                    while (mItem.find()) {
+                        if (ResType.fromTagName(mItem.group(1)) == ResType.ITEM) {
+                            // We must take the base offset (contentStart) into account…
+                            int cs = contentStart + mItem.start(3);
+                            int ce = cs + mItem.group(3).length();
+
+                            // We might not have this content, but we wish to keep the order
+                            ResStringArray.Item item = array.getItem(i);
+                            String content = item == null ? null : item.getContent();
+                            holders.add(new ReplaceHolder(cs, ce,
+                                    content == null ? "" : content));
+                            i++;
+                        }
+                    }
+                    break;
+                case PLURALS:
+                    ResPlurals plurals = ((ResPlurals.Item) tag).getParent();
+                    mItem = RES_TAG_PATTERN.matcher(mTag.group(3));
+                    while (mItem.find()) {
+                        if (ResType.fromTagName(mItem.group(1)) == ResType.ITEM) {
+                            String quantity = getAttr(mItem.group(2), QUANTITY);
+                            int cs = contentStart + mItem.start(3);
+                            int ce = cs + mItem.group(3).length();
+
+                            // We might not have this content, but we wish to keep the order
+                            ResPlurals.Item item = plurals.getItem(quantity);
+                            String content = item == null ? "" : item.getContent();
+                            holders.add(new ReplaceHolder(cs, ce, content));
+                        }
+                    }
+                    break;
+                // case ResType.ITEM: break; // Should not be on the wild though
+            }
+        }
+
+        // Write the result by applying the required replacements
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, UTF_8));
+        ReplaceHolder holder = holders.poll();
+        for (int i = 0; i < xml.length(); i++) {
+            if (holder == null || i < holder.start) {
+                // There are no more holders left, simply copy the characters
+                writer.append(xml.charAt(i));
+            } else {
+                // We reached the current replacement holder
+                // Replace the original content with our new content
+                writer.append(ResTag.sanitizeContent(holder.replacement));
+                i = holder.end - 1; // Skip to the end of the tag
+                // Decrease the range by 1 not to eat up the next character (due to the i++)
+
+                holder = holders.poll(); // Next holder
+            }
+        }
+        writer.close();
+        return !writer.checkError();
+    }
+
+    // Returns TRUE if the template was applied successfully
+    static boolean applyTemplate(String templateXml, Resources resources, OutputStream out) {
+        // The xml will be empty if we have no translation for this file.
+        String xml = cleanMissingStrings(templateXml, resources);
+        return !xml.isEmpty() && writeReplaceStrings(xml, resources, out);
+    }
+
+    //endregion
+
+    //endregion
+
+    //endregion
+
+    //region Private utilities
+
+    // Removes the dirty ranges on string. If a line containing
+    // a dirty range is then empty, this line will also be removed.
+    // The result will be output to the given output stream.
+    private static void removeDirtyRanges(final String string,
+                                          final Queue<DirtyRange> dirtyRanges,
+                                          final OutputStream output)
+            throws IOException {
+        int line = 0;
+        int lastLine = -1; // To avoid adding the same line twice
+        Queue<Integer> dirtyLines = new LinkedList<>();
+
+        // Save result here
+        StringBuilder noDirty = new StringBuilder();
+
+        // Get first range and iterate over the characters of the xml
+        DirtyRange range = dirtyRanges.poll();
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+
+            if (range == null || i < range.start) {
+                // Copy this character since it's not part of the dirty tag
+                noDirty.append(c);
+
+                // Note how we increment the line iff it was copied,
+                // otherwise it was removed and should be excluded
+                if (c == '\n') {
+                    line++;
+                }
+            } else {
+                // Omit these characters since we're in a dirty tag,
+                // and mark the line as dirty iff it wasn't marked before
+                if (lastLine != line) {
+                    dirtyLines.add(line);
+                    lastLine = line;
+                }
+
+                // >= not to skip to the next character
+                if (i >= range.end) {
+                    // We're outside the range now, so pick up the next range
+                    range = dirtyRanges.poll();
+                }
+            }
+        }
+
+        // Clean the dirty lines iff they're whitespace only
+        String[] lines = noDirty.toString().split("\\n");
+        Integer dirtyLine = dirtyLines.poll();
+
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8));
+        for (int i = 0; i < lines.length; i++) {
+            // If there are no more dirty lines
+            // Or we are not at a dirty line yet
+            // Or this line is not all whitespace, append it
+            if (dirtyLine == null || i != dirtyLine || !isWhitespace(lines[i])) {
+                writer.write(lines[i]);
+                writer.write('\n');
+            } else {
+                // Get the next dirty line while ignoring this line too
+                dirtyLine = dirtyLines.poll();
+            }
+        }
+        writer.close();
+    }
+
+    //endregion
+}
@@ -0,0 +1,268 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Random;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResPlurals;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResString;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResStringArray;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResTag;
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResType;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// The resources used to be written through the platform XmlSerializer, and the files
+// written by ResourcesWriter must be byte for byte the same as those it used to write
+public class ResourcesWriterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Random mRandom;
+
+    @Test
+    public void goldenFileIsWrittenTheSame() throws IOException {
+        final Resources resources = loadResource("/writer/strings.xml");
+        final byte[] expected = readResource("/writer/strings.expected.xml");
+
+        assertArrayEquals(expected, write(resources));
+        assertArrayEquals(expected, serialize(resources));
+    }
+
+    @Test
+    public void generatedResourcesAreWrittenTheSame() throws IOException {
+        mRandom = new Random(7);
+        for (int i = 0; i < 400; ++i) {
+            final Resources resources = generateResources();
+            assertArrayEquals(serialize(resources), write(resources));
+        }
+    }
+
+    @Test
+    public void illegalCharactersAreRefused() throws IOException {
+        final String[] contents = {
+                "bell \u0007 rings", "a\u0000b", "lone \ud83d surrogate", "swapped \ude00\ud83d",
+                "last \ud83d", "not \ufffe", "not \uffff"
+        };
+        for (String content : contents) {
+            final Resources resources = Resources.empty();
+            resources.addTag(new ResString("id", content, false));
+            try {
+                serialize(resources);
+                fail("The serializer accepted " + content);
+            } catch (IllegalArgumentException ignored) {
+            }
+            assertFalse(ResourcesCodec.get().write(resources, new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    public void rawTextIsWrittenAsUtf8() throws IOException {
+        mRandom = new Random(24);
+        final ResourcesWriter writer = new ResourcesWriter();
+        for (int i = 0; i < 200; ++i) {
+            final String text = generateRawText(mRandom.nextInt(20000));
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.setOutput(out);
+
+            // Written in pieces, like the text between the tags of a template,
+            // which never splits a surrogate pair in two
+            for (int start = 0, end; start < text.length(); start = end) {
+                end = Math.min(text.length(), start + 1 + mRandom.nextInt(3000));
+                if (end < text.length() && Character.isLowSurrogate(text.charAt(end)) &&
+                        Character.isHighSurrogate(text.charAt(end - 1)))
+                    ++end;
+
+                writer.raw(text, start, end);
+            }
+            writer.flush();
+            assertArrayEquals(text.getBytes("UTF-8"), out.toByteArray());
+        }
+    }
+
+    //region Utilities
+
+    private static byte[] write(final Resources resources) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ResourcesCodec.get().write(resources, out));
+        return out.toByteArray();
+    }
+
+    private Resources loadResource(final String name) throws IOException {
+        final File file = mFolder.newFile("strings.xml");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(readResource(name));
+        } finally {
+            out.close();
+        }
+        return Resources.fromFile(file);
+    }
+
+    private static byte[] readResource(final String name) throws IOException {
+        final InputStream in = ResourcesWriterTest.class.getResourceAsStream(name);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    //endregion
+
+    //region Writing through the XmlSerializer
+
+    // This is how ResourcesParser.parseToXml used to write the resources
+    private static byte[] serialize(final Resources resources) throws IOException {
+        final XmlSerializer serializer = new PlatformXmlSerializer();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final HashSet<String> doneParents = new HashSet<>();
+
+        serializer.setOutput(out, "UTF-8");
+        serializer.startTag(null, "resources");
+        for (ResTag rs : resources) {
+            if (!rs.hasContent())
+                continue;
+
+            if (rs instanceof ResString) {
+                serializer.startTag(null, "string");
+                serializer.attribute(null, "name", ResType.resolveID(rs.getId()));
+                if (rs.wasModified())
+                    serializer.attribute(null, "modified", "true");
+
+                serializer.text(ResTag.sanitizeContent(rs.getContent()));
+                serializer.endTag(null, "string");
+            } else if (rs instanceof ResStringArray.Item) {
+                final ResStringArray parent = ((ResStringArray.Item) rs).getParent();
+                if (doneParents.add(parent.getId())) {
+                    serializer.startTag(null, "string-array");
+                    serializer.attribute(null, "name", ResType.resolveID(parent.getId()));
+                    for (ResStringArray.Item item : parent.expand()) {
+                        serializer.startTag(null, "item");
+                        if (item.wasModified())
+                            serializer.attribute(null, "modified", "true");
+
+                        serializer.attribute(null, "index", Integer.toString(item.getIndex()));
+                        serializer.text(ResTag.sanitizeContent(item.getContent()));
+                        serializer.endTag(null, "item");
+                    }
+                    serializer.endTag(null, "string-array");
+                }
+            } else if (rs instanceof ResPlurals.Item) {
+                final ResPlurals parent = ((ResPlurals.Item) rs).getParent();
+                if (doneParents.add(parent.getId())) {
+                    serializer.startTag(null, "plurals");
+                    serializer.attribute(null, "name", ResType.resolveID(parent.getId()));
+                    for (ResPlurals.Item item : parent.expand()) {
+                        serializer.startTag(null, "item");
+                        serializer.attribute(null, "quantity", item.getQuantity());
+                        if (item.wasModified())
+                            serializer.attribute(null, "modified", "true");
+
+                        serializer.text(ResTag.sanitizeContent(item.getContent()));
+                        serializer.endTag(null, "item");
+                    }
+                    serializer.endTag(null, "plurals");
+                }
+            }
+        }
+        serializer.endTag(null, "resources");
+        serializer.flush();
+        return out.toByteArray();
+    }
+
+    //endregion
+
+    //region Generating resources
+
+    private Resources generateResources() {
+        final Resources resources = Resources.empty();
+        for (int i = mRandom.nextInt(30); i-- != 0; ) {
+            final String id = "id" + i + generateText(2);
+            switch (mRandom.nextInt(3)) {
+                case 0:
+                    resources.addTag(new ResString(id, generateText(1 + mRandom.nextInt(40)),
+                            mRandom.nextBoolean()));
+                    break;
+                case 1:
+                    final ResStringArray array = new ResStringArray(id);
+                    for (int j = 0; j < 3; ++j)
+                        resources.addTag(array.addItem(generateText(10) + "x", mRandom.nextBoolean(), j * 2));
+                    break;
+                default:
+                    final ResPlurals plurals = new ResPlurals(id);
+                    resources.addTag(plurals.addItem("one", generateText(20), mRandom.nextBoolean()));
+                    resources.addTag(plurals.addItem("q@" + generateText(2), "y" + generateText(20), false));
+                    break;
+            }
+        }
+        return resources;
+    }
+
+    // Random text which is allowed in XML, with the characters that need escaping
+    private String generateText(final int length) {
+        final String pool = "ab <>&\"'@\\\n\r\t#;é日\u007f\u0085";
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            switch (mRandom.nextInt(12)) {
+                case 0:
+                    final char c = (char) (' ' + mRandom.nextInt(0xd800 - ' '));
+                    sb.append(c);
+                    break;
+                case 1:
+                    sb.appendCodePoint(0x10000 + mRandom.nextInt(0x100000));
+                    break;
+                case 2:
+                    sb.append("<b>x</b>");
+                    break;
+                default:
+                    sb.append(pool.charAt(mRandom.nextInt(pool.length())));
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    // Text using every length of UTF-8 sequence, and unpaired surrogates too
+    private String generateRawText(final int length) {
+        final StringBuilder sb = new StringBuilder(length + 1);
+        while (sb.length() < length) {
+            switch (mRandom.nextInt(8)) {
+                case 0:
+                    sb.append((char) (0x80 + mRandom.nextInt(0x800 - 0x80)));
+                    break;
+                case 1:
+                    sb.append((char) (0x800 + mRandom.nextInt(0x10000 - 0x800)));
+                    break;
+                case 2:
+                    sb.appendCodePoint(0x10000 + mRandom.nextInt(0x100000));
+                    break;
+                default:
+                    sb.append((char) mRandom.nextInt(0x80));
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    //endregion
+}
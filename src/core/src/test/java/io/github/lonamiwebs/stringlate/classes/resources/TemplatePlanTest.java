@@ -0,0 +1,284 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import net.gsantner.opoc.util.FileUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import io.github.lonamiwebs.stringlate.classes.resources.tags.ResString;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Applying a template and cleaning the XML through TemplatePlan must give the very same
+// output as the regular expressions used to give (see RegexTemplate), for any template
+public class TemplatePlanTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Resources mResources;
+    private Random mRandom;
+
+    @Before
+    public void loadResources() throws IOException {
+        final File file = mFolder.newFile("strings.xml");
+        write(file, "<resources>" +
+                "<string name=\"a\">A &amp; \"q\"</string>" +
+                "<string name=\"c\">C</string>" +
+                "<string name=\"x_1\">X&lt;b&gt;</string>" +
+                "<string-array name=\"arr\"><item>one</item><item>two</item></string-array>" +
+                "<plurals name=\"pl\"><item quantity=\"one\">1</item><item quantity=\"other\">n</item></plurals>" +
+                "<string name=\"e\"><b>E</b></string>" +
+                "</resources>");
+        mResources = Resources.fromFile(file);
+    }
+
+    @Test
+    public void templateIsApplied() throws IOException {
+        final String template = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<resources>\n" +
+                "    <!-- The first string -->\n" +
+                "    <string name=\"a\">Original</string>\n" +
+                "    <string name=\"missing\">Not translated</string>\n" +
+                "    <string name=\"c\"\n" +
+                "        formatted=\"false\">Original C</string>\n" +
+                "</resources>\n";
+
+        final String expected = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<resources>\n" +
+                "    <!-- The first string -->\n" +
+                "    <string name=\"a\">A &amp; \\\"q\\\"</string>\n" +
+                "    <string name=\"c\"\n" +
+                "        formatted=\"false\">C</string>\n" +
+                "</resources>\n";
+
+        final File file = mFolder.newFile("template.xml");
+        write(file, template);
+        assertEquals("true" + expected, applyTemplate(file));
+        assertEquals("true" + expected, applyRegexTemplate(file));
+    }
+
+    @Test
+    public void templateIsWrittenAsUtf8() throws IOException {
+        mResources.addTag(new ResString("u", "日本語, ñandú, 😀", false));
+        final String template = "<resources>\n" +
+                "    <!-- Ελληνικά 𝄞 -->\n" +
+                "    <string name=\"u\">Unicode €</string>\n" +
+                "</resources>\n";
+        final String expected = "<resources>\n" +
+                "    <!-- Ελληνικά 𝄞 -->\n" +
+                "    <string name=\"u\">日本語, ñandú, 😀</string>\n" +
+                "</resources>\n";
+
+        // Whatever the default charset is, and the stream must be left open
+        final boolean[] closed = {false};
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        assertTrue(TemplatePlan.fromXml(template).apply(mResources, out));
+        assertArrayEquals(expected.getBytes("UTF-8"), out.toByteArray());
+        assertFalse(closed[0]);
+    }
+
+    @Test
+    public void generatedTemplatesAreAppliedTheSame() throws IOException {
+        final File template = mFolder.newFile("template.xml");
+        final File cleaned = new File(mFolder.getRoot(), "cleaned.xml");
+        final File regexCleaned = new File(mFolder.getRoot(), "regex_cleaned.xml");
+
+        int applied = 0;
+        for (int i = 0; i < 5000; ++i) {
+            mRandom = new Random(i);
+            final String xml = generateTemplate();
+            write(template, xml);
+
+            final String result = applyTemplate(template);
+            assertEquals(xml, applyRegexTemplate(template), result);
+            if (result.startsWith("true"))
+                ++applied;
+
+            cleaned.delete();
+            regexCleaned.delete();
+            final boolean cleanedOk = ResourcesParser.cleanXml(xml, cleaned);
+            final boolean regexCleanedOk = RegexTemplate.cleanXml(xml, regexCleaned);
+            assertEquals(xml, regexCleanedOk + read(regexCleaned), cleanedOk + read(cleaned));
+        }
+
+        // Otherwise most of the templates would be left untested
+        assertTrue(applied > 2000);
+    }
+
+    //region Utilities
+
+    // Returns whether it succeeded followed by the output, or the exception thrown
+    private String applyTemplate(final File template) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            return ResourcesParser.applyTemplate(template, mResources, out) + out.toString("UTF-8");
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private String applyRegexTemplate(final File template) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            return RegexTemplate.applyTemplate(FileUtils.readTextFile(template), mResources, out) +
+                    out.toString("UTF-8");
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(final File file) throws IOException {
+        if (!file.isFile())
+            return "(no file)";
+
+        final InputStream in = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    //endregion
+
+    //region Generating templates
+
+    private static final String[] IDS = {"a", "b", "c", "d", "e", "arr", "pl", "x_1", ""};
+
+    private String pick(final String... choices) {
+        return choices[mRandom.nextInt(choices.length)];
+    }
+
+    // Templates as they're usually written, but also with plenty of odd and broken tags
+    private String generateTemplate() {
+        final StringBuilder sb = new StringBuilder();
+        if (mRandom.nextBoolean())
+            sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+
+        sb.append("<resources>");
+        for (int i = mRandom.nextInt(12); i-- != 0; ) {
+            sb.append(pick("\n    ", "\n", " ", "", "\n\n    ", "\n  \t", "\n    \n    "));
+            sb.append(generateTag());
+            if (mRandom.nextInt(5) == 0)
+                sb.append(pick(" ", "  <!-- x -->", " trailing"));
+        }
+        sb.append(pick("\n", "")).append("</resources>").append(pick("", "\n", "\n\n", "\n  \n", " "));
+        return sb.toString();
+    }
+
+    private String generateTag() {
+        final StringBuilder sb = new StringBuilder();
+        switch (mRandom.nextInt(14)) {
+            case 0:
+            case 1:
+            case 2:
+            case 3:
+                return "<string" + generateAttributes() + generateWhitespace() + ">" +
+                        generateContent() + "</string>";
+            case 4:
+                sb.append("<string-array").append(generateAttributes()).append('>');
+                for (int i = mRandom.nextInt(4); i-- != 0; ) {
+                    sb.append(pick("\n        ", "", "\n\n  "))
+                            .append(mRandom.nextInt(6) == 0 ? "<string>in</string>" : generateItem());
+                }
+                return sb.append(pick("\n    ", "")).append("</string-array>").toString();
+            case 5:
+                sb.append("<plurals").append(generateAttributes()).append('>');
+                for (int i = mRandom.nextInt(4); i-- != 0; )
+                    sb.append(pick("\n        ", "")).append(generateItem());
+                return sb.append("\n    </plurals>").toString();
+            case 6:
+                return generateItem();
+            case 7:
+                return "<!-- " + (mRandom.nextBoolean() ? "<string name=\"a\">c</string>" : "comment") + " -->";
+            case 8:
+                return "<string name=\"" + pick(IDS) + "\">unclosed";
+            case 9:
+                return pick("</string>", "<strings>", "<string/>", "<item/>", "<", ">");
+            case 10:
+                return "<string name=\"" + pick(IDS) + "\"/>";
+            default:
+                return "<string name=\"" + pick(IDS) + "\">" + generateContent() + "</string>";
+        }
+    }
+
+    private String generateItem() {
+        return "<item" + generateAttributes() + generateWhitespace() + ">" + generateContent() +
+                "</item" + generateWhitespace() + ">";
+    }
+
+    private String generateAttributes() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = mRandom.nextInt(3); i-- != 0; ) {
+            switch (mRandom.nextInt(8)) {
+                case 0:
+                    sb.append(" translatable=\"false\"");
+                    break;
+                case 1:
+                    sb.append(" translatable=\"true\"");
+                    break;
+                case 2:
+                    sb.append(" tools:ignore=\"Missing\"");
+                    break;
+                case 3:
+                    sb.append(" formatted=\"false\"");
+                    break;
+                case 4:
+                    sb.append(" quantity=\"").append(pick("one", "other", "few")).append('"');
+                    break;
+                case 5:
+                    sb.append(" name = '").append(pick(IDS)).append('\'');
+                    break;
+                default:
+                    sb.append(pick(" ", "\n    ", "  ")).append("name").append(pick("", " ")).append('=')
+                            .append(pick("", " ")).append('"').append(pick(IDS)).append('"');
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private String generateWhitespace() {
+        return pick("", " ", "  ", "\n", "\t", " \n  ", "\r\n");
+    }
+
+    private String generateContent() {
+        return pick("hello", "a &amp; b", "x < y", "", " spaced ", "multi\nline", "<b>bold</b>", "é");
+    }
+
+    //endregion
+}
@@ -0,0 +1,209 @@
+package io.github.lonamiwebs.stringlate.classes.resources;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import io.github.lonamiwebs.stringlate.interfaces.ResourcesVisitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// The files visited through the hand-written UTF-8 parser must result in the very same
+// tags as when they're visited through the general XmlPull parser, whichever path the
+// file ends up taking (see Utf8ResourcesParser.canParse)
+public class Utf8ResourcesParserTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Random mRandom;
+
+    @After
+    public void restoreParser() {
+        ResourcesCodec.setUtf8ParserEnabled(true);
+    }
+
+    @Test
+    public void generatedFilesVisitTheSameTags() throws IOException {
+        mRandom = new Random(42);
+        final File file = mFolder.newFile("strings.xml");
+
+        int fastPath = 0;
+        for (int i = 0; i < 3000; ++i) {
+            final String xml = generateFile();
+            final byte[] data = xml.getBytes(xml.contains("ISO-8859-1") ? "ISO-8859-1" : "UTF-8");
+            write(file, data);
+            if (Utf8ResourcesParser.canParse(data, data.length))
+                ++fastPath;
+
+            assertEquals(xml, visit(file, false), visit(file, true));
+        }
+
+        // Otherwise we wouldn't be testing anything
+        assertTrue(fastPath > 500);
+    }
+
+    @Test(timeout = 10000)
+    public void truncatedFilesFail() throws IOException {
+        final File file = mFolder.newFile("strings.xml");
+        final String xml = "<resources>\n" +
+                "    <string name=\"a\">A</string>\n" +
+                "    <string-array name=\"b\">\n" +
+                "        <item>B</item>\n" +
+                "    </string-array>\n" +
+                "</resources>\n";
+
+        for (int length = 0; length < xml.indexOf("</resources>"); ++length) {
+            write(file, xml.substring(0, length).getBytes("UTF-8"));
+            assertEquals(visit(file, false), visit(file, true));
+            assertTrue(visit(file, true).startsWith("false"));
+        }
+    }
+
+    //region Utilities
+
+    private static String visit(final File file, final boolean utf8Parser) {
+        ResourcesCodec.setUtf8ParserEnabled(utf8Parser);
+        final StringBuilder sb = new StringBuilder();
+        final boolean ok = ResourcesParser.visitFile(file, new ResourcesVisitor() {
+            @Override
+            public void onString(String id, String content, boolean modified) {
+                sb.append("string ").append(id).append('=').append(content)
+                        .append(' ').append(modified).append('\n');
+            }
+
+            @Override
+            public void onArrayItem(String arrayId, int index, String content, boolean modified) {
+                sb.append("item ").append(arrayId).append('[').append(index).append("]=")
+                        .append(content).append(' ').append(modified).append('\n');
+            }
+
+            @Override
+            public void onPluralItem(String pluralsId, String quantity, String content, boolean modified) {
+                sb.append("item ").append(pluralsId).append('[').append(quantity).append("]=")
+                        .append(content).append(' ').append(modified).append('\n');
+            }
+
+            @Override
+            public void onEnd() {
+                sb.append("end");
+            }
+        });
+        return ok + "\n" + sb;
+    }
+
+    private static void write(final File file, final byte[] data) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    //endregion
+
+    //region Generating files
+
+    private String pick(final String... choices) {
+        return choices[mRandom.nextInt(choices.length)];
+    }
+
+    // Mostly what strings.xml files look like, with some of the constructs that make
+    // the fast path give up and some malformed tags that make both of them fail
+    private String generateFile() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(pick("",
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n",
+                "<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>",
+                "﻿<?xml version=\"1.0\"?>\n",
+                "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"));
+        sb.append(pick("", "<!-- header -->\n", "<!DOCTYPE resources>\n"));
+        sb.append("<resources")
+                .append(mRandom.nextInt(20) == 0 ? " tools:ignore=\"MissingTranslation\"" : "")
+                .append(">\n");
+
+        final int count = mRandom.nextInt(12);
+        for (int i = 0; i < count; ++i) {
+            final String name = pick("a", "b", "c", "d&amp;e", "dup");
+            switch (mRandom.nextInt(6)) {
+                case 0:
+                case 1:
+                    sb.append("  <string name=\"").append(name).append('"').append(generateAttributes())
+                            .append('>').append(generateContent()).append("</string>\n");
+                    break;
+                case 2:
+                    sb.append("  <string-array name=\"").append(name).append('"')
+                            .append(generateAttributes()).append(">\n");
+                    for (int j = mRandom.nextInt(4); j-- != 0; ) {
+                        sb.append("    <item")
+                                .append(mRandom.nextBoolean() ? " index=\"" + mRandom.nextInt(4) + '"' : "")
+                                .append(generateAttributes()).append('>').append(generateContent())
+                                .append("</item>\n");
+                    }
+                    sb.append("  </string-array>\n");
+                    break;
+                case 3:
+                    sb.append("  <plurals name=\"").append(name).append('"')
+                            .append(generateAttributes()).append(">\n");
+                    for (int j = mRandom.nextInt(4); j-- != 0; ) {
+                        sb.append("    <item quantity=\"").append(pick("one", "other", "few")).append('"')
+                                .append(generateAttributes()).append('>').append(generateContent())
+                                .append("</item>\n");
+                    }
+                    sb.append("  </plurals>\n");
+                    break;
+                case 4:
+                    sb.append(pick("  <integer name=\"x\">3</integer>\n",
+                            "  <dimen name=\"d\"><b>1</b></dimen>\n",
+                            "  <string name=\"self\"/>\n",
+                            "  <!-- <string name=\"c\">x</string> -->\n",
+                            "text here\n"));
+                    break;
+                default:
+                    sb.append(pick("  <string name=\"e\"></string>\n",
+                            "  <string name=\"x\">bad</strin>\n",
+                            "  <string name=\"y\" a=\"1\ny\">z</string>\n",
+                            "  <string name=\"z\">a]]>b</string>\n",
+                            "  <string>noname</string>\n",
+                            "  <string name=\"t\"\tmodified=\"true\" >tab</string >\n"));
+                    break;
+            }
+        }
+        if (mRandom.nextInt(15) != 0)
+            sb.append("</resources>\n");
+
+        return sb.toString();
+    }
+
+    private String generateAttributes() {
+        final StringBuilder sb = new StringBuilder();
+        if (mRandom.nextInt(5) == 0)
+            sb.append(" modified=\"true\"");
+        if (mRandom.nextInt(8) == 0)
+            sb.append(pick(" translatable=\"false\"", " translate='false'",
+                    " tools:ignore=\"MissingTranslation\"", " translatable=\"true\""));
+        return sb.toString();
+    }
+
+    private String generateContent() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = mRandom.nextInt(6); i-- != 0; ) {
+            sb.append(pick("hello", " ", "\n   ", "&amp;", "&lt;", "&#169;", "&#x41;", "<b>x</b>",
+                    "<br/>", "<xliff:g id=\"a\" example='b'>%s</xliff:g>", "<!-- c -->",
+                    "<![CDATA[<u>]]>", "\\'", "\\n", "ñ€😀", "\r\n", "&nbsp;", "<i>", "</i>",
+                    "\"q\"", "<?pi?>", "@string/x", "  "));
+        }
+        return sb.toString();
+    }
+
+    //endregion
+}
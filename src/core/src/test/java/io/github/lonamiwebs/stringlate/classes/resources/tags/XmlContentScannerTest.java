@@ -0,0 +1,192 @@
+package io.github.lonamiwebs.stringlate.classes.resources.tags;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Whenever the scanner is sure, it must tell the same as the namespace aware DOM
+// parser that ResTag.sanitizeContent used to rely on for any content with tags
+public class XmlContentScannerTest {
+
+    private DocumentBuilder mBuilder;
+    private Random mRandom;
+
+    @Before
+    public void createBuilder() throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setValidating(false);
+        factory.setNamespaceAware(true);
+        mBuilder = factory.newDocumentBuilder();
+
+        // The errors are thrown anyway, don't print them too
+        mBuilder.setErrorHandler(new DefaultHandler());
+    }
+
+    @Test
+    public void commonContentIsJudgedLikeTheParser() {
+        final String[] wellFormed = {
+                "<b>bold</b> and <i>italic</i>", "<br/>", "Line<br />break",
+                "<font color='red' size=\"2\">%1$d</font> files",
+                "<a href=\"https://example.com?a=1&amp;b=2\">link</a>",
+                "&lt;&gt;&amp;&apos;&quot; &#169; &#x1F600;", "<!-- comment --><u>x</u>",
+                "<![CDATA[<not a tag>]]>", "<b id=\"x\" />", "<?pi data?>"
+        };
+        final String[] malformed = {
+                "<b>bold", "<b>bold</i>", "a & b <b>", "<b>&nbsp;</b>", "<x:y>unbound</x:y>",
+                "<xliff:g id=\"count\">%1$d</xliff:g> files",
+                "<b a=\"1\" a=\"2\">dup</b>", "<b a=1>unquoted</b>", "<!-- a -- b --><b/>",
+                "<b>\u0001</b>", "<b>]]></b>", "<?xml version=\"1.0\"?><b/>", "<1b/>"
+        };
+        for (String content : wellFormed) {
+            assertEquals(content, XmlContentScanner.WELL_FORMED, XmlContentScanner.scan(content));
+            assertTrue(content, isWellFormedXml(content));
+        }
+        for (String content : malformed) {
+            assertEquals(content, XmlContentScanner.MALFORMED, XmlContentScanner.scan(content));
+            assertTrue(content, !isWellFormedXml(content));
+        }
+    }
+
+    @Test
+    public void generatedContentIsJudgedLikeTheParser() {
+        mRandom = new Random(1234);
+        int decided = 0;
+        for (int i = 0; i < 20000; ++i) {
+            final String content = i % 4 == 0 ? generatePieces() : generateContent();
+            final int result = XmlContentScanner.scan(content);
+            if (result == XmlContentScanner.UNSURE)
+                continue;
+
+            ++decided;
+            assertEquals(content, isWellFormedXml(content), result == XmlContentScanner.WELL_FORMED);
+        }
+
+        // The parser should rarely be needed, or the scanner would be pointless
+        assertTrue(decided > 15000);
+    }
+
+    //region Utilities
+
+    // This is what ResTag.isWellFormedXml does
+    private boolean isWellFormedXml(final String content) {
+        try {
+            mBuilder.reset();
+            mBuilder.setErrorHandler(new DefaultHandler());
+            mBuilder.parse(new InputSource(new StringReader("<a>" + content + "</a>")));
+            return true;
+        } catch (Exception ignored) {
+            return false;
+        }
+    }
+
+    //endregion
+
+    //region Generating content
+
+    private static final String[] PIECES = {
+            "<", ">", "/", "b", "i", "xliff", ":", "g", " ", "=", "\"", "'", "&", "amp", ";", "lt",
+            "#", "x", "41", "0", "!--", "--", "-", "![CDATA[", "]]>", "]", "?", "xml", "id", "a",
+            "\t", "\n", "é", "\u0001", "\uD83D\uDE00", "\uD83D", "\uFFFE", "foo", "xmlns", "apos",
+            "quot", "nbsp", "1", "_", ".", "X", "\r", "xml:lang", "<b>", "</b>", "<i>", "</i>",
+            "<xliff:g id=\"x\">", "</xliff:g>", "%1$s", "<br/>", "<u>", "</u>", "<a href=\"x\">",
+            "</a>", "&#10;", "&#x1F600;", "&#0;", "&#xD800;"
+    };
+
+    private static final String[] NAMES = {
+            "b", "i", "u", "xliff:g", "xml:x", "a", "br", "font", "x-y", "_z", "h1.2", "p:q", "ab:", "é"
+    };
+
+    private static final String[] ATTRIBUTES = {
+            "id", "href", "xml:lang", "color", "a", "x:y", "b-c", "xmlns:x"
+    };
+
+    private static final String[] TEXTS = {
+            "hello", " ", "%1$s", "&amp;", "&lt;", "&gt;", "&apos;", "&quot;", "&#65;", "&#x41;",
+            "&#x1F600;", "é", "\uD83D\uDE00", "\n", "'", "\"", ">", "]]", "]", "-", "?", "&nbsp;",
+            "&#;", "&#x;", "&#X41;", "&#1114112;", "&#9;"
+    };
+
+    // Characters inserted or replaced at random to break what was generated
+    private static final String MUTATIONS = "<>/&;\"'=: -!?][#x\u0001";
+
+    private String pick(final String[] choices) {
+        return choices[mRandom.nextInt(choices.length)];
+    }
+
+    // A tag followed by random pieces, which is mostly malformed
+    private String generatePieces() {
+        final StringBuilder sb = new StringBuilder("<");
+        for (int i = 1 + mRandom.nextInt(12); i-- != 0; )
+            sb.append(pick(PIECES));
+        return sb.toString();
+    }
+
+    // Mostly well-formed nodes, with a few random mutations
+    private String generateContent() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 1 + mRandom.nextInt(4); i-- != 0; )
+            generateNode(sb, 0);
+
+        for (int i = mRandom.nextInt(3); i-- != 0 && sb.length() != 0; ) {
+            final int at = mRandom.nextInt(sb.length());
+            final char c = MUTATIONS.charAt(mRandom.nextInt(MUTATIONS.length()));
+            switch (mRandom.nextInt(3)) {
+                case 0:
+                    sb.deleteCharAt(at);
+                    break;
+                case 1:
+                    sb.insert(at, c);
+                    break;
+                default:
+                    sb.setCharAt(at, c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private void generateNode(final StringBuilder sb, final int depth) {
+        final int kind = mRandom.nextInt(10);
+        if (kind < 4 || depth > 4) {
+            sb.append(pick(TEXTS));
+        } else if (kind == 4) {
+            sb.append("<!--").append(mRandom.nextBoolean() ? " c " : "-").append("-->");
+        } else if (kind == 5) {
+            sb.append("<![CDATA[").append(mRandom.nextBoolean() ? "<x>&" : "]").append("]]>");
+        } else if (kind == 6) {
+            sb.append("<?").append(pick(new String[]{"pi", "xml", "XmL"}))
+                    .append(mRandom.nextBoolean() ? " data" : "").append("?>");
+        } else {
+            final String name = pick(NAMES);
+            sb.append('<').append(name);
+            for (int i = mRandom.nextInt(3); i-- != 0; ) {
+                final char quote = mRandom.nextBoolean() ? '"' : '\'';
+                sb.append(mRandom.nextInt(5) == 0 ? "\n" : " ").append(pick(ATTRIBUTES))
+                        .append(mRandom.nextInt(4) == 0 ? " = " : "=").append(quote);
+                if (mRandom.nextBoolean())
+                    sb.append(pick(TEXTS));
+                sb.append(quote);
+            }
+            if (mRandom.nextInt(4) == 0) {
+                sb.append(mRandom.nextBoolean() ? "/>" : " />");
+            } else {
+                sb.append('>');
+                for (int i = mRandom.nextInt(4); i-- != 0; )
+                    generateNode(sb, depth + 1);
+                sb.append("</").append(name).append(mRandom.nextInt(5) == 0 ? " >" : ">");
+            }
+        }
+    }
+
+    //endregion
+}